@@ -0,0 +1,420 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * The distinct colors of a number of RGB pixels together with the number of
+ * their occurrences. Pixels are packed into an {@code int} as
+ * {@code 0xRRGGBB}, the alpha byte is ignored.<br>
+ * Optionally, the precision of each channel may be reduced, so that similar
+ * colors collapse into the same entry; each reduced channel value is placed
+ * in the middle of the range of values it stands for.<br>
+ * Histograms of the same precision built over parts of the pixels, for
+ * example by several processes, can be merged in any order, and written to
+ * and read from a compact binary encoding, so no pixels need to be moved to
+ * determine a palette for all of them.<br>
+ * Implemented as a primitive hash table with open addressing.
+ *
+ * @author Martin Weber
+ */
+public class ColorHistogram
+{
+  /** version of the binary encoding, written first */
+  private static final int ENCODING_VERSION= 1;
+
+  /** marks an unused slot in the table, never a valid color */
+  private static final int EMPTY= -1;
+
+  /** initial number of slots, a power of two */
+  private static final int INITIAL_CAPACITY= 1 << 10;
+
+  /** number of significant bits kept of each channel */
+  private final int bitsPerChannel;
+
+  /** mask for the significant bits of each channel */
+  private final int mask;
+
+  /** added to a reduced color to get the middle of its range */
+  private final int rounding;
+
+  /** the colors, {@link #EMPTY} for unused slots */
+  private int[] colors;
+
+  /** the number of occurrences of the color at the same slot */
+  private long[] counts;
+
+  /** number of used slots */
+  private int size;
+
+  /** number of pixels added */
+  private long totalCount;
+
+  /**
+   * Creates a new histogram that keeps the full precision of each channel.
+   */
+  public ColorHistogram()
+  {
+    this( 8);
+  }
+
+  /**
+   * Creates a new histogram that keeps the specified number of the most
+   * significant bits of each channel.
+   *
+   * @param bitsPerChannel
+   *        the precision of each channel, from 1 to 8. A value of 5 for
+   *        example allows at most 32768 distinct colors.
+   */
+  public ColorHistogram( int bitsPerChannel)
+  {
+    if (bitsPerChannel < 1 || bitsPerChannel > 8)
+      throw new IllegalArgumentException( "bitsPerChannel out of range: "
+        + bitsPerChannel);
+    this.bitsPerChannel= bitsPerChannel;
+    final int channelMask= (0xFF << (8 - bitsPerChannel)) & 0xFF;
+    mask= channelMask << 16 | channelMask << 8 | channelMask;
+    final int channelRounding= (~channelMask & 0xFF) + 1 >> 1;
+    rounding= channelRounding << 16 | channelRounding << 8 | channelRounding;
+    colors= new int[INITIAL_CAPACITY];
+    Arrays.fill( colors, EMPTY);
+    counts= new long[INITIAL_CAPACITY];
+  }
+
+  /**
+   * Gets the number of the most significant bits kept of each channel.
+   */
+  public int getBitsPerChannel()
+  {
+    return bitsPerChannel;
+  }
+
+  /**
+   * Adds one occurrence of the specified pixel.
+   *
+   * @param pixel
+   *        the pixel, packed as {@code 0xRRGGBB}
+   */
+  public void add( int pixel)
+  {
+    add( pixel, 1);
+  }
+
+  /**
+   * Adds the specified number of occurrences of a pixel.
+   *
+   * @param pixel
+   *        the pixel, packed as {@code 0xRRGGBB}
+   * @param count
+   *        the number of occurrences to add, at least one
+   * @throws ArithmeticException
+   *         if the number of occurrences of the color or of all colors would
+   *         overflow. The histogram is left unchanged then.
+   */
+  public void add( int pixel, long count)
+  {
+    if (count < 1)
+      throw new IllegalArgumentException( "count < 1: " + count);
+    final int color= (pixel & mask) | rounding;
+    final int slotMask= colors.length - 1;
+    int slot= hash( color) & slotMask;
+    while (colors[slot] != color && colors[slot] != EMPTY) {
+      slot= (slot + 1) & slotMask;
+    }
+    // both may overflow, so change nothing before both are known
+    final long slotCount= Math.addExact( counts[slot], count);
+    final long total= Math.addExact( totalCount, count);
+    if (colors[slot] == EMPTY) {
+      colors[slot]= color;
+      size++;
+    }
+    counts[slot]= slotCount;
+    totalCount= total;
+    if (size > colors.length >> 1)
+      grow();
+  }
+
+  /**
+   * Adds one occurrence of each of the specified pixels.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}
+   * @param offset
+   *        the index of the first pixel to add
+   * @param length
+   *        the number of pixels to add
+   */
+  public void add( int[] pixels, int offset, int length)
+  {
+    for (int i= offset, end= offset + length; i < end; i++) {
+      add( pixels[i], 1);
+    }
+  }
+
+  /**
+   * Adds the occurrences of the colors of the specified histogram. Merging is
+   * associative and commutative.
+   *
+   * @param other
+   *        a histogram of the same precision, left unchanged
+   * @throws ArithmeticException
+   *         if the number of occurrences would overflow. The colors merged
+   *         before are kept.
+   */
+  public void merge( ColorHistogram other)
+  {
+    if (other.bitsPerChannel != bitsPerChannel)
+      throw new IllegalArgumentException( "bitsPerChannel differs: "
+        + other.bitsPerChannel + " != " + bitsPerChannel);
+    for (int slot= 0; slot < other.colors.length; slot++) {
+      final int color= other.colors[slot];
+      if (color != EMPTY)
+        add( color, other.counts[slot]);
+    }
+  }
+
+  /**
+   * Writes this histogram in a compact binary encoding: the colors are
+   * reduced to their significant bits and written in ascending order as
+   * differences, each with its count, as variable-length integers.
+   * Counts below 2<sup>31</sup> take the same bytes as in the first
+   * encoding, which wrote them as {@code int}s, so its version is kept.
+   *
+   * @throws IOException
+   *         if writing fails
+   * @see #read(DataInput)
+   */
+  public void write( DataOutput out) throws IOException
+  {
+    final int[] indices= new int[size];
+    for (int slot= 0, i= 0; i < size; slot++) {
+      if (colors[slot] != EMPTY)
+        indices[i++]= toIndex( colors[slot]);
+    }
+    Arrays.sort( indices);
+    out.writeByte( ENCODING_VERSION);
+    out.writeByte( bitsPerChannel);
+    writeVarInt( out, size);
+    for (int i= 0, previous= 0; i < size; i++) {
+      writeVarInt( out, indices[i] - previous);
+      previous= indices[i];
+      writeVarLong( out, getCount( fromIndex( indices[i])));
+    }
+  }
+
+  /**
+   * Reads a histogram written by {@link #write(DataOutput)}.
+   *
+   * @throws IOException
+   *         if reading fails or the encoding is invalid
+   */
+  public static ColorHistogram read( DataInput in) throws IOException
+  {
+    final int version= in.readUnsignedByte();
+    if (version != ENCODING_VERSION)
+      throw new IOException( "unsupported encoding version: " + version);
+    final int bits= in.readUnsignedByte();
+    if (bits < 1 || bits > 8)
+      throw new IOException( "bitsPerChannel out of range: " + bits);
+    final ColorHistogram result= new ColorHistogram( bits);
+    final int colorCount= readVarInt( in);
+    for (int i= 0, index= 0; i < colorCount; i++) {
+      index+= readVarInt( in);
+      if (index < 0 || index >= 1 << 3 * bits)
+        throw new IOException( "color out of range: " + index);
+      final long count= readVarLong( in);
+      if (count < 1)
+        throw new IOException( "count < 1: " + count);
+      result.add( result.fromIndex( index), count);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the number of distinct colors.
+   */
+  public int getColorCount()
+  {
+    return size;
+  }
+
+  /**
+   * Gets the number of pixels added.
+   */
+  public long getTotalCount()
+  {
+    return totalCount;
+  }
+
+  /**
+   * Gets the distinct colors, packed as {@code 0xRRGGBB}.
+   *
+   * @return a new array, ordered like {@link #getCounts()}
+   */
+  public int[] getColors()
+  {
+    int[] result= new int[size];
+    for (int slot= 0, i= 0; i < size; slot++) {
+      if (colors[slot] != EMPTY)
+        result[i++]= colors[slot];
+    }
+    return result;
+  }
+
+  /**
+   * Gets the number of occurrences of each distinct color.
+   *
+   * @return a new array, ordered like {@link #getColors()}
+   */
+  public long[] getCounts()
+  {
+    long[] result= new long[size];
+    for (int slot= 0, i= 0; i < size; slot++) {
+      if (colors[slot] != EMPTY)
+        result[i++]= counts[slot];
+    }
+    return result;
+  }
+
+  /**
+   * Gets the number of occurrences of the specified reduced color.
+   */
+  private long getCount( int color)
+  {
+    final int slotMask= colors.length - 1;
+    int slot= hash( color) & slotMask;
+    while (colors[slot] != color) {
+      slot= (slot + 1) & slotMask;
+    }
+    return counts[slot];
+  }
+
+  /**
+   * Packs the significant bits of the channels of a reduced color.
+   */
+  private int toIndex( int color)
+  {
+    final int shift= 8 - bitsPerChannel;
+    return (color >> 16 & 0xFF) >> shift << 2 * bitsPerChannel
+      | (color >> 8 & 0xFF) >> shift << bitsPerChannel
+      | (color & 0xFF) >> shift;
+  }
+
+  /**
+   * Unpacks a reduced color from the significant bits of its channels.
+   */
+  private int fromIndex( int index)
+  {
+    final int shift= 8 - bitsPerChannel;
+    final int channelMask= (1 << bitsPerChannel) - 1;
+    return (index >> 2 * bitsPerChannel & channelMask) << shift << 16
+      | (index >> bitsPerChannel & channelMask) << shift << 8
+      | (index & channelMask) << shift | rounding;
+  }
+
+  /**
+   * Writes a non-negative {@code int} in 7-bit groups, least significant
+   * first.
+   */
+  private static void writeVarInt( DataOutput out, int value)
+    throws IOException
+  {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte( value & 0x7F | 0x80);
+      value>>>= 7;
+    }
+    out.writeByte( value);
+  }
+
+  /**
+   * Writes a non-negative {@code long} in 7-bit groups, least significant
+   * first; the same bytes as {@link #writeVarInt(DataOutput, int)} for
+   * values that fit an {@code int}.
+   */
+  private static void writeVarLong( DataOutput out, long value)
+    throws IOException
+  {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte( (int) (value & 0x7F | 0x80));
+      value>>>= 7;
+    }
+    out.writeByte( (int) value);
+  }
+
+  /**
+   * Reads a non-negative {@code int} written by
+   * {@link #writeVarInt(DataOutput, int)}.
+   */
+  private static int readVarInt( DataInput in) throws IOException
+  {
+    int result= 0;
+    for (int shift= 0; shift < 32; shift+= 7) {
+      final int b= in.readUnsignedByte();
+      result|= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        if (result < 0)
+          throw new IOException( "negative value");
+        return result;
+      }
+    }
+    throw new IOException( "malformed variable-length integer");
+  }
+
+  /**
+   * Reads a non-negative {@code long} written by
+   * {@link #writeVarLong(DataOutput, long)}.
+   */
+  private static long readVarLong( DataInput in) throws IOException
+  {
+    long result= 0;
+    for (int shift= 0; shift < 64; shift+= 7) {
+      final int b= in.readUnsignedByte();
+      result|= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        if (result < 0)
+          throw new IOException( "negative value");
+        return result;
+      }
+    }
+    throw new IOException( "malformed variable-length integer");
+  }
+
+  /**
+   * Doubles the number of slots and re-inserts the used ones.
+   */
+  private void grow()
+  {
+    final int[] oldColors= colors;
+    final long[] oldCounts= counts;
+    colors= new int[oldColors.length << 1];
+    Arrays.fill( colors, EMPTY);
+    counts= new long[colors.length];
+    final int slotMask= colors.length - 1;
+    for (int i= 0; i < oldColors.length; i++) {
+      final int color= oldColors[i];
+      if (color != EMPTY) {
+        int slot= hash( color) & slotMask;
+        while (colors[slot] != EMPTY) {
+          slot= (slot + 1) & slotMask;
+        }
+        colors[slot]= color;
+        counts[slot]= oldCounts[i];
+      }
+    }
+  }
+
+  /**
+   * Spreads the bits of a color over the whole {@code int}.
+   */
+  private static int hash( int color)
+  {
+    final int h= color * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -4,19 +4,59 @@
 
 
 /**
+ * A data point holding one dimension of type 'float'. The byte accessors of
+ * {@link DataPoint} convert the value exactly, so {@link MedianCut} can
+ * quantize such points only if their values are integers in the range of a
+ * byte. To quantize points of any value, wrap them in a
+ * {@link DataPoints1float} and use {@link MedianCut4DataPoints}.
+ *
  * @author Martin Weber
  */
 public class DataPoint1float implements DataPoint<DataPoint1float>
 {
+  private float value;
 
-  /*-
-   * @see mediancut.DataPoint#difference(short, mediancut.DataPoint)
+  /**
+   * Creates a new Datapoint that has a value of zero.
+   */
+  public DataPoint1float()
+  {}
+
+  /**
+   * Creates a new Datapoint with the specified value.
+   */
+  public DataPoint1float( float value)
+  {
+    this.value= value;
+  }
+
+  /**
+   * Gets the value of this point.
+   */
+  public final float getFloatValue()
+  {
+    return value;
+  }
+
+  /**
+   * Sets the value of this point.
+   */
+  public final void setFloatValue( float value)
+  {
+    this.value= value;
+  }
+
+  /**
+   * Gets the difference to the specified point, rounded toward zero and
+   * limited to the range of an {@code int}. Implemented as
+   *
+   * <pre>
+   * (int) ((double) this.getFloatValue() - rhs.getFloatValue());
+   * </pre>
    */
   public int difference( short dimension, DataPoint1float rhs)
   {
-     throw new UnsupportedOperationException("Not implemented: difference()");
-    // TODO Auto-generated method stub since 16.11.2008
-    //return 0;
+    return (int) ((double) this.value - rhs.value);
   }
 
   /*-
@@ -24,39 +64,37 @@ public class DataPoint1float implements DataPoint<DataPoint1float>
    */
   public short getDimensions()
   {
-     throw new UnsupportedOperationException("Not implemented: getDimensions()");
-    // TODO Auto-generated method stub since 16.11.2008
-    //return 0;
+    return 1;
   }
 
-  /*-
-   * @see mediancut.DataPoint#getValue(short)
+  /**
+   * Gets the value of this point as a byte.
+   *
+   * @throws ArithmeticException
+   *         if the value is not an integer in the range of a byte
    */
   public byte getValue( short dimension)
   {
-     throw new UnsupportedOperationException("Not implemented: getValue()");
-    // TODO Auto-generated method stub since 16.11.2008
-    //return 0;
+    final byte result= (byte) value;
+    if (result != value)
+      throw new ArithmeticException( "not a byte value: " + value);
+    return result;
   }
 
-  /*-
-   * @see mediancut.DataPoint#moveToMaximum()
+  /**
+   * Sets the value of this point to {@link Float#POSITIVE_INFINITY}.
    */
   public void moveToMaximum()
   {
-     throw new UnsupportedOperationException("Not implemented: moveToMaximum()");
-    // TODO Auto-generated method stub since 16.11.2008
-    //
+    value= Float.POSITIVE_INFINITY;
   }
 
-  /*-
-   * @see mediancut.DataPoint#moveToMinimum()
+  /**
+   * Sets the value of this point to {@link Float#NEGATIVE_INFINITY}.
    */
   public void moveToMinimum()
   {
-     throw new UnsupportedOperationException("Not implemented: moveToMinimum()");
-    // TODO Auto-generated method stub since 16.11.2008
-    //
+    value= Float.NEGATIVE_INFINITY;
   }
 
   /*-
@@ -64,9 +102,8 @@ public class DataPoint1float implements DataPoint<DataPoint1float>
    */
   public void setMax( short dimension, DataPoint1float rhs)
   {
-     throw new UnsupportedOperationException("Not implemented: setMax()");
-    // TODO Auto-generated method stub since 16.11.2008
-    //
+    if (this.value < rhs.value)
+      this.value= rhs.value;
   }
 
   /*-
@@ -74,9 +111,8 @@ public class DataPoint1float implements DataPoint<DataPoint1float>
    */
   public void setMin( short dimension, DataPoint1float rhs)
   {
-     throw new UnsupportedOperationException("Not implemented: setMin()");
-    // TODO Auto-generated method stub since 16.11.2008
-    //
+    if (this.value > rhs.value)
+      this.value= rhs.value;
   }
 
   /*-
@@ -84,9 +120,7 @@ public class DataPoint1float implements DataPoint<DataPoint1float>
    */
   public void setValue( short dimension, byte value)
   {
-     throw new UnsupportedOperationException("Not implemented: setValue()");
-    // TODO Auto-generated method stub since 16.11.2008
-    //
+    this.value= value;
   }
 
 }
@@ -0,0 +1,23 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+/**
+ * Creates {@link DataPoint1float}s, so that {@link MedianCut} can run on
+ * them.
+ *
+ * @author Martin Weber
+ */
+final class DataPoint1floatFactory implements DataPointFactory<DataPoint1float>
+{
+
+  /**
+   * Creates a new Datapoint that has a value of zero.
+   */
+  public DataPoint1float createPoint()
+  {
+    return new DataPoint1float();
+  }
+
+}
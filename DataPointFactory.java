@@ -4,11 +4,14 @@
 
 
 /**
+ * Creates the data points the {@link MedianCut} returns as representative
+ * points.
+ *
  * @param <T>
  *        the type of the data point objects created by the factory
  * @author Martin Weber
  */
-interface DataPointFactory<T extends DataPoint<T>>
+public interface DataPointFactory<T extends DataPoint<T>>
 {
 
   /**
@@ -0,0 +1,57 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+/**
+ * A set of data points for the {@link MedianCut4DataPoints} to operate on.
+ * Unlike {@link DataPoint}, the values are not limited to bytes and are held
+ * in flat arrays rather than in one object per point. Points are addressed by
+ * their index.
+ *
+ * @param <T>
+ *        the type of the point set, so that representative points are created
+ *        of the same type
+ * @author Martin Weber
+ */
+public interface DataPoints<T extends DataPoints<T>>
+{
+
+  /**
+   * Gets the number of points.
+   */
+  public abstract int size();
+
+  /**
+   * Gets the number of dimensions of each point.
+   */
+  public abstract short getDimensions();
+
+  /**
+   * Gets the value of the specified point for the specified dimension.
+   */
+  public abstract double getValue( int point, short dimension);
+
+  /**
+   * Sets the value of the specified point for the specified dimension,
+   * converted to the type of values of this set.
+   */
+  public abstract void setValue( int point, short dimension, double value);
+
+  /**
+   * Gets a key of the value of the specified point for the specified
+   * dimension. Keys order like the values do, so points can be sorted by
+   * their keys.
+   */
+  public abstract int getSortKey( int point, short dimension);
+
+  /**
+   * Creates a new point set of the same type and the same number of
+   * dimensions that has no values for its points.
+   *
+   * @param size
+   *        the number of points
+   */
+  public abstract T createPoints( int size);
+
+}
@@ -0,0 +1,97 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+/**
+ * Adapts an array of {@link DataPoint1float}s to a set of data points, so
+ * they can be quantized by {@link MedianCut4DataPoints} at the full precision
+ * of their values. The points are neither copied nor moved.
+ *
+ * @author Martin Weber
+ */
+public class DataPoints1float implements DataPoints<DataPoints1float>
+{
+  private final DataPoint1float[] points;
+
+  /**
+   * Creates a new point set of the specified number of points that have a
+   * value of zero.
+   */
+  public DataPoints1float( int size)
+  {
+    points= new DataPoint1float[size];
+    for (int i= 0; i < size; i++) {
+      points[i]= new DataPoint1float();
+    }
+  }
+
+  /**
+   * Creates a new point set backed by the specified points. The array is not
+   * copied.
+   */
+  public DataPoints1float( DataPoint1float[] points)
+  {
+    this.points= points;
+  }
+
+  /**
+   * Gets the points.
+   *
+   * @return the array backing this set
+   */
+  public DataPoint1float[] getPoints()
+  {
+    return points;
+  }
+
+  /*-
+   * @see DataPoints#size()
+   */
+  public int size()
+  {
+    return points.length;
+  }
+
+  /*-
+   * @see DataPoints#getDimensions()
+   */
+  public short getDimensions()
+  {
+    return 1;
+  }
+
+  /*-
+   * @see DataPoints#getValue(int, short)
+   */
+  public double getValue( int point, short dimension)
+  {
+    return points[point].getFloatValue();
+  }
+
+  /*-
+   * @see DataPoints#setValue(int, short, double)
+   */
+  public void setValue( int point, short dimension, double value)
+  {
+    points[point].setFloatValue( (float) value);
+  }
+
+  /**
+   * Gets a key of the value of the specified point. Implemented like
+   * {@link DataPointsNfloat#getSortKey(int, short)}.
+   */
+  public int getSortKey( int point, short dimension)
+  {
+    final int bits= Float.floatToIntBits( points[point].getFloatValue());
+    return bits ^ (bits >> 31 & Integer.MAX_VALUE);
+  }
+
+  /*-
+   * @see DataPoints#createPoints(int)
+   */
+  public DataPoints1float createPoints( int size)
+  {
+    return new DataPoints1float( size);
+  }
+}
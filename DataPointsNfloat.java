@@ -0,0 +1,131 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+/**
+ * A set of data points holding any number of dimensions of type 'float', for
+ * example HDR colors or feature vectors. The values are held in a single
+ * array, point by point.
+ *
+ * @author Martin Weber
+ */
+public class DataPointsNfloat implements DataPoints<DataPointsNfloat>
+{
+  private final float[] values;
+
+  private final short numDimensions;
+
+  /**
+   * Creates a new point set that has no values for its points.
+   *
+   * @param size
+   *        the number of points
+   * @param numDimensions
+   *        the number of dimensions of each point
+   */
+  public DataPointsNfloat( int size, short numDimensions)
+  {
+    this( new float[size * numDimensions], numDimensions);
+  }
+
+  /**
+   * Creates a new point set with the specified values. The array is not
+   * copied.
+   *
+   * @param values
+   *        the values, point by point, so the value of point {@code i} for
+   *        dimension {@code d} is stored at {@code i * numDimensions + d}
+   * @param numDimensions
+   *        the number of dimensions of each point
+   */
+  public DataPointsNfloat( float[] values, short numDimensions)
+  {
+    if (numDimensions <= 0)
+      throw new IllegalArgumentException( "numDimensions <= 0");
+    if (values.length % numDimensions != 0)
+      throw new IllegalArgumentException(
+        "length not a multiple of " + numDimensions);
+    this.values= values;
+    this.numDimensions= numDimensions;
+  }
+
+  /**
+   * Gets the values of all points.
+   *
+   * @return the array holding the values, point by point
+   */
+  public float[] getValues()
+  {
+    return values;
+  }
+
+  /**
+   * Gets the number of points.
+   */
+  public int size()
+  {
+    return values.length / numDimensions;
+  }
+
+  /**
+   * Gets the number of dimensions of each point.
+   */
+  public short getDimensions()
+  {
+    return numDimensions;
+  }
+
+  /**
+   * Gets the value of the specified point for the specified dimension.
+   */
+  public final float getFloatValue( int point, short dimension)
+  {
+    return values[point * numDimensions + dimension];
+  }
+
+  /**
+   * Sets the value of the specified point for the specified dimension.
+   */
+  public final void setFloatValue( int point, short dimension, float value)
+  {
+    values[point * numDimensions + dimension]= value;
+  }
+
+  /*-
+   * @see DataPoints#getValue(int, short)
+   */
+  public final double getValue( int point, short dimension)
+  {
+    return values[point * numDimensions + dimension];
+  }
+
+  /*-
+   * @see DataPoints#setValue(int, short, double)
+   */
+  public final void setValue( int point, short dimension, double value)
+  {
+    values[point * numDimensions + dimension]= (float) value;
+  }
+
+  /**
+   * Gets a key of the value of the specified point for the specified
+   * dimension. Implemented as the bits of the value, with the bits of
+   * negative values flipped, so the keys order like
+   * {@link Float#compare(float, float)} does.
+   */
+  public final int getSortKey( int point, short dimension)
+  {
+    final int bits=
+      Float.floatToIntBits( values[point * numDimensions + dimension]);
+    return bits ^ (bits >> 31 & Integer.MAX_VALUE);
+  }
+
+  /*-
+   * @see DataPoints#createPoints(int)
+   */
+  public DataPointsNfloat createPoints( int size)
+  {
+    return new DataPointsNfloat( size, numDimensions);
+  }
+}
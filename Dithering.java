@@ -0,0 +1,338 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Maps the pixels of an image to the indices of palette colors with
+ * dithering, for example to a palette determined by {@link MedianCut}.
+ * Pixels are packed into an {@code int} as {@code 0xRRGGBB}, row by row; the
+ * alpha byte is ignored. The palette indices are written to a preallocated
+ * {@code byte[]}, so the palette must have at most 256 colors.<br>
+ * Error diffusion uses the Floyd-Steinberg weights and integer arithmetic. In
+ * parallel, rows are processed by several tasks in a staggered way: a pixel
+ * is processed as soon as the pixels of the row above it that pass their
+ * error on to it are done. This yields exactly the same result as the serial
+ * algorithm.
+ *
+ * @author Martin Weber
+ */
+public class Dithering
+{
+  /** the thresholds of the 8x8 Bayer matrix, from 0 to 63 */
+  private static final int[] BAYER= { 0, 32, 8, 40, 2, 34, 10, 42, 48, 16,
+    56, 24, 50, 18, 58, 26, 12, 44, 4, 36, 14, 46, 6, 38, 60, 28, 52, 20, 62,
+    30, 54, 22, 3, 35, 11, 43, 1, 33, 9, 41, 51, 19, 59, 27, 49, 17, 57, 25,
+    15, 47, 7, 39, 13, 45, 5, 37, 63, 31, 55, 23, 61, 29, 53, 21 };
+
+  /**
+   * number of pixels a row is processed ahead, before its progress gets
+   * published to the row below
+   */
+  private static final int PROGRESS_INTERVAL= 32;
+
+  /** minimum number of pixels processed by a single task in ordered mode */
+  private static final int MIN_CHUNK_SIZE= 1 << 14;
+
+  /** the map to find the nearest palette color with */
+  private final PaletteMap paletteMap;
+
+  /** the palette, packed as {@code 0xRRGGBB} */
+  private final int[] palette;
+
+  /**
+   * @param paletteMap
+   *        the map to find the nearest palette color with. Its palette must
+   *        have at most 256 colors.
+   */
+  public Dithering( PaletteMap paletteMap)
+  {
+    if (paletteMap.getPaletteSize() > 1 << 8)
+      throw new IllegalArgumentException( "palette too large for byte indices");
+    this.paletteMap= paletteMap;
+    this.palette= paletteMap.getPalette();
+  }
+
+  /**
+   * @param palette
+   *        the palette, each point holding <code>{R, G, B}</code>, at most 256
+   *        colors
+   */
+  public Dithering( List<DataPoint3Byte> palette)
+  {
+    this( new PaletteMap( palette));
+  }
+
+  /**
+   * Maps the pixels of an image to palette indices, diffusing the
+   * quantization error with Floyd-Steinberg weights.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}, row by row
+   * @param width
+   *        the number of pixels of a row
+   * @param height
+   *        the number of rows
+   * @param indices
+   *        receives the palette index of the pixel at the same index
+   */
+  public void errorDiffusion( int[] pixels, int width, int height,
+    byte[] indices)
+  {
+    checkSize( pixels, width, height, indices);
+    int[] in= new int[3 * (width + 2)];
+    int[] out= new int[3 * (width + 2)];
+    for (int y= 0; y < height; y++) {
+      Arrays.fill( out, 0);
+      diffuseRow( pixels, width, y, indices, in, out, null);
+      int[] tmp= in;
+      in= out;
+      out= tmp;
+    }
+  }
+
+  /**
+   * Maps the pixels of an image to palette indices like
+   * {@link #errorDiffusion(int[], int, int, byte[])} does, but using the
+   * threads of the specified pool. The result is exactly the same.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}, row by row
+   * @param width
+   *        the number of pixels of a row
+   * @param height
+   *        the number of rows
+   * @param indices
+   *        receives the palette index of the pixel at the same index
+   */
+  public void errorDiffusion( final int[] pixels, final int width,
+    final int height, final byte[] indices, ForkJoinPool pool)
+  {
+    checkSize( pixels, width, height, indices);
+    // rows are taken in order, so at most one row per task is in progress
+    // and all rows taken before these are done
+    final int numTasks= Math.max( 1, Math.min( pool.getParallelism(), height));
+    // each row reads its errors from one buffer and writes the errors of the
+    // next row to the following buffer
+    final int[][] buffers= new int[numTasks + 1][3 * (width + 2)];
+    final AtomicIntegerArray progress= new AtomicIntegerArray( height);
+    final AtomicInteger nextRow= new AtomicInteger();
+    final List<RecursiveAction> tasks= new ArrayList<RecursiveAction>();
+    for (int t= 0; t < numTasks; t++) {
+      tasks.add( new RecursiveAction() {
+
+        @Override
+        protected void compute()
+        {
+          int y;
+          while ((y= nextRow.getAndIncrement()) < height) {
+            final int[] in= buffers[y % buffers.length];
+            final int[] out= buffers[(y + 1) % buffers.length];
+            Arrays.fill( out, 0);
+            diffuseRow( pixels, width, y, indices, in, out, progress);
+          }
+        }
+      });
+    }
+    pool.invoke( new RecursiveAction() {
+
+      @Override
+      protected void compute()
+      {
+        ForkJoinTask.invokeAll( tasks);
+      }
+    });
+  }
+
+  /**
+   * Maps the pixels of one row to palette indices, diffusing the
+   * quantization error.
+   *
+   * @param y
+   *        the number of the row
+   * @param in
+   *        the errors diffused to this row, for each pixel and channel,
+   *        scaled by 16
+   * @param out
+   *        receives the errors diffused to the next row
+   * @param progress
+   *        the number of pixels done of each row, to wait for the row above
+   *        and to publish the progress of this row, or {@code null} if the
+   *        rows are processed serially
+   */
+  private void diffuseRow( int[] pixels, int width, int y, byte[] indices,
+    int[] in, int[] out, AtomicIntegerArray progress)
+  {
+    final int rowStart= y * width;
+    // error carried on to the right neighbor, scaled by 16
+    int carryR= 0, carryG= 0, carryB= 0;
+    int available= y == 0 || progress == null ? width : 0;
+    for (int x= 0; x < width; x++) {
+      // the pixels above, above left and above right pass their errors on
+      while (available < Math.min( x + 2, width)) {
+        available= progress.get( y - 1);
+        if (available < Math.min( x + 2, width))
+          Thread.yield();
+      }
+      final int pixel= pixels[rowStart + x];
+      final int e= 3 * (x + 1);
+      final int r= clamp( (pixel >> 16 & 0xFF) + (in[e] + carryR + 8 >> 4));
+      final int g=
+        clamp( (pixel >> 8 & 0xFF) + (in[e + 1] + carryG + 8 >> 4));
+      final int b= clamp( (pixel & 0xFF) + (in[e + 2] + carryB + 8 >> 4));
+      final int index= paletteMap.indexOf( r << 16 | g << 8 | b);
+      indices[rowStart + x]= (byte) index;
+      final int color= palette[index];
+      final int errR= r - (color >> 16);
+      final int errG= g - (color >> 8 & 0xFF);
+      final int errB= b - (color & 0xFF);
+      carryR= 7 * errR;
+      carryG= 7 * errG;
+      carryB= 7 * errB;
+      out[e - 3]+= 3 * errR;
+      out[e - 2]+= 3 * errG;
+      out[e - 1]+= 3 * errB;
+      out[e]+= 5 * errR;
+      out[e + 1]+= 5 * errG;
+      out[e + 2]+= 5 * errB;
+      out[e + 3]+= errR;
+      out[e + 4]+= errG;
+      out[e + 5]+= errB;
+      if (progress != null && (x + 1) % PROGRESS_INTERVAL == 0)
+        progress.lazySet( y, x + 1);
+    }
+    if (progress != null)
+      progress.set( y, width);
+  }
+
+  /**
+   * Maps the pixels of an image to palette indices, adding an offset from an
+   * 8x8 Bayer matrix to each pixel. Each pixel is processed independently, so
+   * the work is divided among the threads of the specified pool.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}, row by row
+   * @param width
+   *        the number of pixels of a row
+   * @param height
+   *        the number of rows
+   * @param indices
+   *        receives the palette index of the pixel at the same index
+   */
+  public void ordered( int[] pixels, int width, int height, byte[] indices,
+    ForkJoinPool pool)
+  {
+    checkSize( pixels, width, height, indices);
+    // the range of the offsets is about the distance of the palette colors
+    final int spread= (int) (256 / Math.cbrt( palette.length));
+    pool.invoke( new OrderedTask( pixels, width, indices, spread, 0, height));
+  }
+
+  /**
+   * Maps the pixels of the specified rows like
+   * {@link #ordered(int[], int, int, byte[], ForkJoinPool)} does.
+   *
+   * @param spread
+   *        the range of the offsets
+   * @param from
+   *        the number of the first row
+   * @param to
+   *        the number after the last row
+   */
+  private void ordered( int[] pixels, int width, byte[] indices, int spread,
+    int from, int to)
+  {
+    for (int y= from; y < to; y++) {
+      final int rowStart= y * width;
+      final int bayerRow= (y & 7) << 3;
+      for (int x= 0; x < width; x++) {
+        final int offset=
+          ((2 * BAYER[bayerRow | x & 7] + 1) * spread >> 7) - (spread >> 1);
+        final int pixel= pixels[rowStart + x];
+        final int r= clamp( (pixel >> 16 & 0xFF) + offset);
+        final int g= clamp( (pixel >> 8 & 0xFF) + offset);
+        final int b= clamp( (pixel & 0xFF) + offset);
+        indices[rowStart + x]=
+          (byte) paletteMap.indexOf( r << 16 | g << 8 | b);
+      }
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException
+   *         if an array is too small for the size of the image
+   */
+  private static void checkSize( int[] pixels, int width, int height,
+    byte[] indices)
+  {
+    final long size= (long) width * height;
+    if (pixels.length < size || indices.length < size)
+      throw new IllegalArgumentException( "array too small for " + width
+        + "x" + height + " pixels");
+  }
+
+  private static int clamp( int value)
+  {
+    return value < 0 ? 0 : value > 0xFF ? 0xFF : value;
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * Maps a range of rows with ordered dithering, dividing it among several
+   * tasks if it is large.
+   *
+   * @author Martin Weber
+   */
+  private class OrderedTask extends RecursiveAction
+  {
+    private static final long serialVersionUID= 1L;
+
+    private final int[] pixels;
+
+    private final int width;
+
+    private final byte[] indices;
+
+    private final int spread;
+
+    private final int from;
+
+    private final int to;
+
+    OrderedTask( int[] pixels, int width, byte[] indices, int spread,
+      int from, int to)
+    {
+      this.pixels= pixels;
+      this.width= width;
+      this.indices= indices;
+      this.spread= spread;
+      this.from= from;
+      this.to= to;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if ((long) (to - from) * width < 2 * MIN_CHUNK_SIZE || to - from < 2) {
+        ordered( pixels, width, indices, spread, from, to);
+      } else {
+        final int mid= (from + to) >>> 1;
+        invokeAll(
+          new OrderedTask( pixels, width, indices, spread, from, mid),
+          new OrderedTask( pixels, width, indices, spread, mid, to));
+      }
+    }
+  }
+}
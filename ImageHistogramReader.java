@@ -0,0 +1,208 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.concurrent.SynchronousQueue;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+/**
+ * Collects the colors of an image file into a {@link ColorHistogram} without
+ * decoding the whole image at once, for example to quantize large PNG or TIFF
+ * images with {@link MedianCut4PackedRGB#medianCut(ColorHistogram, int)}.<br>
+ * The image is read region by region through the source region of an
+ * {@link ImageReadParam}: tile by tile if the image is tiled, else in strips of
+ * full rows. A separate thread decodes the next region while the current one
+ * is added to the histogram, then the region is discarded. So at most two
+ * regions are held besides the histogram.<br>
+ * Note that readers of formats without random access to the rows, such as
+ * PNG, decode each region from the start of the image; for them, fewer and
+ * taller strips are faster.<br>
+ * The instance holds no state of a read, so it may be shared by any number of
+ * threads.
+ *
+ * @author Martin Weber
+ */
+public class ImageHistogramReader
+{
+  /** passed by the decoding thread after the last region */
+  private static final Object END= new Object();
+
+  /** the number of rows of a strip of an untiled image */
+  private final int stripHeight;
+
+  /**
+   * Creates a reader that reads untiled images in strips of 256 rows.
+   */
+  public ImageHistogramReader()
+  {
+    this( 256);
+  }
+
+  /**
+   * Creates a reader that reads untiled images in strips of the specified
+   * number of rows.
+   *
+   * @param stripHeight
+   *        the number of rows of a strip
+   */
+  public ImageHistogramReader( int stripHeight)
+  {
+    if (stripHeight < 1)
+      throw new IllegalArgumentException( "stripHeight < 1");
+    this.stripHeight= stripHeight;
+  }
+
+  /**
+   * Adds the pixels of the first image in the specified file to the
+   * specified histogram.
+   *
+   * @return the histogram
+   * @throws IOException
+   *         if the file cannot be read or decoded
+   */
+  public ColorHistogram read( File file, ColorHistogram histogram)
+    throws IOException
+  {
+    final ImageInputStream in= ImageIO.createImageInputStream( file);
+    if (in == null)
+      throw new IOException( "cannot read " + file);
+    try {
+      return read( in, histogram);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Adds the pixels of the first image in the specified stream to the
+   * specified histogram.
+   *
+   * @param in
+   *        the stream, left open
+   * @return the histogram
+   * @throws IOException
+   *         if the stream cannot be read or decoded
+   */
+  public ColorHistogram read( ImageInputStream in, ColorHistogram histogram)
+    throws IOException
+  {
+    final Iterator<ImageReader> readers= ImageIO.getImageReaders( in);
+    if ( !readers.hasNext())
+      throw new IOException( "no reader for the image format");
+    final ImageReader reader= readers.next();
+    try {
+      reader.setInput( in, true, true);
+      read( reader, histogram);
+      return histogram;
+    } finally {
+      reader.dispose();
+    }
+  }
+
+  /**
+   * Decodes the regions of the image on a separate thread and adds them to
+   * the histogram on the calling thread.
+   */
+  private void read( final ImageReader reader, ColorHistogram histogram)
+    throws IOException
+  {
+    final int width= reader.getWidth( 0);
+    final int height= reader.getHeight( 0);
+    final int regionWidth, regionHeight;
+    if (reader.isImageTiled( 0)) {
+      regionWidth= reader.getTileWidth( 0);
+      regionHeight= reader.getTileHeight( 0);
+    } else {
+      regionWidth= width;
+      regionHeight= Math.min( stripHeight, height);
+    }
+    // hands each region (or the failure) over, then END
+    final SynchronousQueue<Object> regions= new SynchronousQueue<Object>();
+    final Thread decoder= new Thread( "image-decoder") {
+
+      @Override
+      public void run()
+      {
+        Object last= END;
+        try {
+          final ImageReadParam param= reader.getDefaultReadParam();
+          for (int y= 0; y < height; y+= regionHeight) {
+            for (int x= 0; x < width; x+= regionWidth) {
+              param.setSourceRegion( new Rectangle( x, y, Math.min(
+                regionWidth, width - x), Math.min( regionHeight, height - y)));
+              regions.put( reader.read( 0, param));
+            }
+          }
+        } catch (InterruptedException ex) {
+          return; // the reading thread gave up
+        } catch (Throwable ex) {
+          last= ex;
+        }
+        try {
+          regions.put( last);
+        } catch (InterruptedException ex) {
+          // the reading thread gave up
+        }
+      }
+    };
+    decoder.setDaemon( true);
+    decoder.start();
+    try {
+      int[] row= new int[regionWidth];
+      Object region;
+      while ((region= regions.take()) instanceof BufferedImage) {
+        add( (BufferedImage) region, row, histogram);
+      }
+      if (region instanceof IOException)
+        throw (IOException) region;
+      if (region instanceof RuntimeException)
+        throw (RuntimeException) region;
+      if (region instanceof Error)
+        throw (Error) region;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException( "interrupted while reading image");
+    } finally {
+      // stop the decoder before the reader gets disposed
+      decoder.interrupt();
+      boolean interrupted= false;
+      while (decoder.isAlive()) {
+        try {
+          decoder.join();
+        } catch (InterruptedException ex) {
+          interrupted= true;
+        }
+      }
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Adds the pixels of a region to the histogram, row by row.
+   *
+   * @param row
+   *        storage for the pixels of a row, at least as wide as the region
+   */
+  private static void add( BufferedImage region, int[] row,
+    ColorHistogram histogram)
+  {
+    final int width= region.getWidth();
+    for (int y= 0; y < region.getHeight(); y++) {
+      region.getRGB( 0, y, width, 1, row, 0, width);
+      histogram.add( row, 0, width);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.Arrays;
+
+
+/**
+ * A priority queue of elements with a {@code long} key each, the highest key
+ * first. The keys are computed once when an element is inserted and kept in
+ * a primitive array; the heap itself is a primitive array of the indices of
+ * the elements. Elements are sifted like {@link java.util.PriorityQueue}
+ * does, so elements with equal keys come out in the same order as from a
+ * {@code PriorityQueue} ordering them by key.<br>
+ * The index of an element is not reused after it was removed, so the queue
+ * is meant for a bounded number of insertions, such as the clusters of a
+ * median cut run.
+ *
+ * @author Martin Weber
+ */
+class IndexedHeap<E>
+{
+  /** the elements inserted so far, by index */
+  private Object[] elements;
+
+  /** the key of each element, by index */
+  private long[] keys;
+
+  /** the number of elements inserted so far */
+  private int count;
+
+  /** the indices of the elements in the queue, as a binary heap */
+  private int[] heap;
+
+  /** the number of elements in the queue */
+  private int size;
+
+  /** the number of key comparisons so far */
+  private int comparisons;
+
+  /**
+   * Creates an empty queue.
+   *
+   * @param initialCapacity
+   *        the number of insertions to size the arrays for
+   */
+  IndexedHeap( int initialCapacity)
+  {
+    final int capacity= Math.max( 1, initialCapacity);
+    elements= new Object[capacity];
+    keys= new long[capacity];
+    heap= new int[capacity];
+  }
+
+  /**
+   * Gets the number of elements in the queue.
+   */
+  int size()
+  {
+    return size;
+  }
+
+  /**
+   * Gets whether the queue is empty.
+   */
+  boolean isEmpty()
+  {
+    return size == 0;
+  }
+
+  /**
+   * Gets the number of key comparisons so far.
+   */
+  int getComparisons()
+  {
+    return comparisons;
+  }
+
+  /**
+   * Inserts an element, sifting it up like
+   * {@link java.util.PriorityQueue#offer(Object)} does.
+   *
+   * @param key
+   *        the key of the element, higher keys come out first
+   */
+  void offer( E element, long key)
+  {
+    if (count == elements.length) {
+      final int capacity= count + (count >> 1) + 1;
+      elements= Arrays.copyOf( elements, capacity);
+      keys= Arrays.copyOf( keys, capacity);
+      heap= Arrays.copyOf( heap, capacity);
+    }
+    final int index= count++;
+    elements[index]= element;
+    keys[index]= key;
+    int k= size++;
+    while (k > 0) {
+      final int parent= (k - 1) >>> 1;
+      final int e= heap[parent];
+      if (compare( index, e) >= 0)
+        break;
+      heap[k]= e;
+      k= parent;
+    }
+    heap[k]= index;
+  }
+
+  /**
+   * Gets the element with the highest key without removing it.
+   *
+   * @return the element or {@code null} if the queue is empty
+   */
+  @SuppressWarnings("unchecked")
+  E peek()
+  {
+    return size == 0 ? null : (E) elements[heap[0]];
+  }
+
+  /**
+   * Removes the element with the highest key, sifting the last one down like
+   * {@link java.util.PriorityQueue#poll()} does.
+   *
+   * @return the element or {@code null} if the queue is empty
+   */
+  @SuppressWarnings("unchecked")
+  E poll()
+  {
+    if (size == 0)
+      return null;
+    final int result= heap[0];
+    final int n= --size;
+    if (n > 0) {
+      final int x= heap[n];
+      final int half= n >>> 1;
+      int k= 0;
+      while (k < half) {
+        int child= 2 * k + 1;
+        int c= heap[child];
+        final int right= child + 1;
+        if (right < n && compare( c, heap[right]) > 0)
+          c= heap[child= right];
+        if (compare( x, c) <= 0)
+          break;
+        heap[k]= c;
+        k= child;
+      }
+      heap[k]= x;
+    }
+    final E element= (E) elements[result];
+    elements[result]= null;
+    return element;
+  }
+
+  /**
+   * Compares two elements by their key, the higher key first.
+   */
+  private int compare( int lhs, int rhs)
+  {
+    comparisons++;
+    return Long.compare( keys[rhs], keys[lhs]);
+  }
+}
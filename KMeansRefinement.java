@@ -0,0 +1,507 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Refines a palette of RGB pixels packed into an {@code int} as
+ * {@code 0xRRGGBB}, for example one determined by {@link MedianCut4PackedRGB},
+ * by Lloyd iterations of k-means: each pixel is assigned to the nearest color
+ * (by euclidean distance), then each color is moved to the mean of its
+ * pixels.<br>
+ * The pixels are processed in chunks by the threads of a pool. Following
+ * Hamerly, an upper bound of the distance of each pixel to its color and a
+ * lower bound of the distance to the second nearest color are kept, so most
+ * pixels are neither compared to all colors nor even to their own one.<br>
+ * Iterating stops after a maximum number of iterations or once an iteration
+ * lowers the error by less than a given fraction. The instance holds no
+ * state of a run, so it may be shared by any number of threads.
+ *
+ * @author Martin Weber
+ */
+public class KMeansRefinement
+{
+  /** minimum number of pixels processed by a single task */
+  private static final int MIN_CHUNK_SIZE= 1 << 14;
+
+  private final int maxIterations;
+
+  private final double minImprovement;
+
+  private final ForkJoinPool pool;
+
+  /**
+   * Creates a refinement running on the common {@link ForkJoinPool}.
+   *
+   * @param maxIterations
+   *        the maximum number of iterations
+   * @param minImprovement
+   *        the fraction by which an iteration must lower the error to go on,
+   *        for example {@code 0.001}
+   */
+  public KMeansRefinement( int maxIterations, double minImprovement)
+  {
+    this( maxIterations, minImprovement, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Creates a refinement running on the specified pool.
+   *
+   * @param maxIterations
+   *        the maximum number of iterations
+   * @param minImprovement
+   *        the fraction by which an iteration must lower the error to go on,
+   *        for example {@code 0.001}
+   * @param pool
+   *        the pool to run the tasks
+   */
+  public KMeansRefinement( int maxIterations, double minImprovement,
+    ForkJoinPool pool)
+  {
+    if (maxIterations < 1)
+      throw new IllegalArgumentException( "maxIterations < 1");
+    if ( !(minImprovement >= 0))
+      throw new IllegalArgumentException( "minImprovement < 0");
+    this.maxIterations= maxIterations;
+    this.minImprovement= minImprovement;
+    this.pool= pool;
+  }
+
+  /**
+   * Refines the specified palette for the specified pixels.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}. The alpha byte is ignored.
+   *        The pixels are left unchanged.
+   * @param palette
+   *        the initial palette, packed as {@code 0xRRGGBB}, left unchanged
+   * @return the refined palette, in the order of the initial one, and the
+   *         error before and after refining
+   */
+  public Result refine( final int[] pixels, final int[] palette)
+  {
+    if (pixels.length == 0 || palette.length == 0)
+      return new Result( palette.clone(), 0, 0.0, 0.0, 0L);
+    return pool.invoke( new RecursiveTask<Result>() {
+
+      @Override
+      protected Result compute()
+      {
+        return new Run( pixels, palette).run();
+      }
+    });
+  }
+
+  /**
+   * Sums up the specified values.
+   */
+  private static int sum( int[] values)
+  {
+    int result= 0;
+    for (int value : values) {
+      result+= value;
+    }
+    return result;
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * The outcome of a refinement.
+   *
+   * @author Martin Weber
+   */
+  public static class Result
+  {
+    private final int[] palette;
+
+    private final int iterations;
+
+    private final double initialError;
+
+    private final double error;
+
+    private final long distanceCalculations;
+
+    Result( int[] palette, int iterations, double initialError, double error,
+      long distanceCalculations)
+    {
+      this.palette= palette;
+      this.iterations= iterations;
+      this.initialError= initialError;
+      this.error= error;
+      this.distanceCalculations= distanceCalculations;
+    }
+
+    /**
+     * Gets the refined palette, packed as {@code 0xRRGGBB}, in the order of
+     * the initial one.
+     */
+    public int[] getPalette()
+    {
+      return palette;
+    }
+
+    /**
+     * Gets the number of iterations run.
+     */
+    public int getIterations()
+    {
+      return iterations;
+    }
+
+    /**
+     * Gets the mean squared error of the pixels quantized to the initial
+     * palette.
+     */
+    public double getInitialError()
+    {
+      return initialError;
+    }
+
+    /**
+     * Gets the mean squared error of the pixels to the refined colors (before
+     * rounding) they were last assigned to. Quantizing each pixel to its
+     * nearest color yields at most that error.
+     */
+    public double getError()
+    {
+      return error;
+    }
+
+    /**
+     * Gets the number of distances of a pixel to a color calculated, a
+     * measure of the work done.
+     */
+    public long getDistanceCalculations()
+    {
+      return distanceCalculations;
+    }
+  }
+
+  /**
+   * The state of a refinement run.
+   *
+   * @author Martin Weber
+   */
+  private class Run
+  {
+    private final int[] pixels;
+
+    /** number of colors */
+    private final int k;
+
+    /** the colors, as R, G, B triples */
+    private final double[] centers;
+
+    /** the index of the color each pixel is assigned to */
+    private final int[] assignment;
+
+    /** an upper bound of the distance of each pixel to its color */
+    private final float[] upper;
+
+    /** a lower bound of the distance of each pixel to any other color */
+    private final float[] lower;
+
+    /** half the distance of each color to the nearest other one */
+    private final double[] halfGap;
+
+    /** the distance each color moved in the last update */
+    private final double[] drift;
+
+    /** the color that moved farthest and the distances moved farthest */
+    private int maxDriftIndex;
+
+    private double maxDrift;
+
+    private double secondMaxDrift;
+
+    /** the start of each chunk, followed by the number of pixels */
+    private final int[] chunkStart;
+
+    /** the sum of the channels of the pixels of each color, by chunk */
+    private final long[][] sums;
+
+    /** the number of pixels of each color, by chunk */
+    private final long[][] counts;
+
+    /** the number of pixels assigned to another color, by chunk */
+    private final int[] changed;
+
+    /** the number of distances calculated, by chunk */
+    private final long[] calculations;
+
+    /** the squared distances of the pixels to the initial colors, by chunk */
+    private final double[] initialErrors;
+
+    /** the sum of the squared channels of all pixels */
+    private long sumOfSquares;
+
+    Run( int[] pixels, int[] palette)
+    {
+      this.pixels= pixels;
+      k= palette.length;
+      centers= new double[3 * k];
+      for (int c= 0; c < k; c++) {
+        centers[3 * c]= palette[c] >> 16 & 0xFF;
+        centers[3 * c + 1]= palette[c] >> 8 & 0xFF;
+        centers[3 * c + 2]= palette[c] & 0xFF;
+      }
+      assignment= new int[pixels.length];
+      upper= new float[pixels.length];
+      lower= new float[pixels.length];
+      halfGap= new double[k];
+      drift= new double[k];
+      final int chunks=
+        Math.max( 1, Math.min( 4 * pool.getParallelism(), pixels.length
+          / MIN_CHUNK_SIZE));
+      chunkStart= new int[chunks + 1];
+      for (int c= 0; c <= chunks; c++) {
+        chunkStart[c]= (int) ((long) pixels.length * c / chunks);
+      }
+      sums= new long[chunks][3 * k];
+      counts= new long[chunks][k];
+      changed= new int[chunks];
+      calculations= new long[chunks];
+      initialErrors= new double[chunks];
+      for (int pixel : pixels) {
+        final int r= pixel >> 16 & 0xFF, g= pixel >> 8 & 0xFF, b= pixel & 0xFF;
+        sumOfSquares+= r * r + g * g + b * b;
+      }
+    }
+
+    /**
+     * Runs the iterations.
+     */
+    Result run()
+    {
+      assign( true);
+      double initialError= 0.0;
+      for (double chunkError : initialErrors) {
+        initialError+= chunkError;
+      }
+      double error= initialError;
+      int iterations= 0;
+      while (true) {
+        final double newError= update();
+        iterations++;
+        final boolean stop=
+          sum( changed) == 0 || error - newError < minImprovement * error
+            || iterations >= maxIterations;
+        error= newError;
+        if (stop)
+          break;
+        updateHalfGaps();
+        assign( false);
+      }
+      int[] palette= new int[k];
+      for (int c= 0; c < k; c++) {
+        palette[c]=
+          (int) Math.round( centers[3 * c]) << 16
+            | (int) Math.round( centers[3 * c + 1]) << 8
+            | (int) Math.round( centers[3 * c + 2]);
+      }
+      long distanceCalculations= 0;
+      for (long chunkCalculations : calculations) {
+        distanceCalculations+= chunkCalculations;
+      }
+      return new Result( palette, iterations, initialError / pixels.length,
+        Math.max( 0.0, error) / pixels.length, distanceCalculations);
+    }
+
+    /**
+     * Assigns each pixel to its nearest color and sums up the pixels of each
+     * color, chunk by chunk in parallel.
+     *
+     * @param initial
+     *        whether this is the first assignment, which compares each pixel
+     *        to all colors
+     */
+    private void assign( final boolean initial)
+    {
+      final int chunks= chunkStart.length - 1;
+      List<RecursiveAction> tasks= new ArrayList<RecursiveAction>( chunks);
+      for (int c= 0; c < chunks; c++) {
+        final int chunk= c;
+        tasks.add( new RecursiveAction() {
+
+          @Override
+          protected void compute()
+          {
+            assign( chunk, initial);
+          }
+        });
+      }
+      ForkJoinTask.invokeAll( tasks);
+    }
+
+    /**
+     * Assigns the pixels of a chunk to their nearest color and sums them up.
+     */
+    private void assign( int chunk, boolean initial)
+    {
+      final long[] sum= sums[chunk];
+      final long[] count= counts[chunk];
+      Arrays.fill( sum, 0);
+      Arrays.fill( count, 0);
+      int changedPixels= 0;
+      long calculated= 0;
+      double error= 0.0;
+      for (int i= chunkStart[chunk], end= chunkStart[chunk + 1]; i < end; i++) {
+        final int pixel= pixels[i];
+        final int r= pixel >> 16 & 0xFF, g= pixel >> 8 & 0xFF, b= pixel & 0xFF;
+        int a= assignment[i];
+        boolean search= initial;
+        if ( !initial) {
+          // the colors moved: loosen the bounds
+          upper[i]= roundUp( upper[i] + drift[a]);
+          lower[i]=
+            roundDown( lower[i]
+              - (a == maxDriftIndex ? secondMaxDrift : maxDrift));
+          final double bound= Math.max( halfGap[a], lower[i]);
+          if (upper[i] > bound) {
+            // tighten the upper bound, then check again
+            upper[i]= roundUp( Math.sqrt( distance( r, g, b, a)));
+            calculated++;
+            search= upper[i] > bound;
+          }
+        }
+        if (search) {
+          // compare to all colors
+          double best= Double.MAX_VALUE, second= Double.MAX_VALUE;
+          int bestIndex= 0;
+          for (int c= 0; c < k; c++) {
+            final double d= distance( r, g, b, c);
+            if (d < best) {
+              second= best;
+              best= d;
+              bestIndex= c;
+            } else if (d < second) {
+              second= d;
+            }
+          }
+          calculated+= k;
+          if (initial)
+            error+= best;
+          if (bestIndex != a || initial)
+            changedPixels++;
+          a= bestIndex;
+          assignment[i]= a;
+          upper[i]= roundUp( Math.sqrt( best));
+          lower[i]= roundDown( Math.sqrt( second));
+        }
+        sum[3 * a]+= r;
+        sum[3 * a + 1]+= g;
+        sum[3 * a + 2]+= b;
+        count[a]++;
+      }
+      changed[chunk]= changedPixels;
+      calculations[chunk]+= calculated;
+      if (initial)
+        initialErrors[chunk]= error;
+    }
+
+    /**
+     * Moves each color to the mean of its pixels. Colors without pixels are
+     * kept.
+     *
+     * @return the sum of the squared distances of the pixels to the moved
+     *         colors
+     */
+    private double update()
+    {
+      double error= sumOfSquares;
+      maxDrift= 0.0;
+      secondMaxDrift= 0.0;
+      maxDriftIndex= -1;
+      for (int c= 0; c < k; c++) {
+        long n= 0, r= 0, g= 0, b= 0;
+        for (int chunk= 0; chunk < counts.length; chunk++) {
+          n+= counts[chunk][c];
+          r+= sums[chunk][3 * c];
+          g+= sums[chunk][3 * c + 1];
+          b+= sums[chunk][3 * c + 2];
+        }
+        if (n == 0) {
+          drift[c]= 0.0;
+          continue;
+        }
+        // sum over the pixels of |x - mean|^2 = sum |x|^2 - |sum x|^2 / n
+        error-= ((double) r * r + (double) g * g + (double) b * b) / n;
+        final double dr= (double) r / n - centers[3 * c];
+        final double dg= (double) g / n - centers[3 * c + 1];
+        final double db= (double) b / n - centers[3 * c + 2];
+        centers[3 * c]+= dr;
+        centers[3 * c + 1]+= dg;
+        centers[3 * c + 2]+= db;
+        drift[c]= Math.sqrt( dr * dr + dg * dg + db * db);
+        if (drift[c] > maxDrift) {
+          secondMaxDrift= maxDrift;
+          maxDrift= drift[c];
+          maxDriftIndex= c;
+        } else if (drift[c] > secondMaxDrift) {
+          secondMaxDrift= drift[c];
+        }
+      }
+      return error;
+    }
+
+    /**
+     * Computes half the distance of each color to the nearest other one. A
+     * pixel nearer to its color than that cannot be nearer to another color.
+     */
+    private void updateHalfGaps()
+    {
+      Arrays.fill( halfGap, Double.MAX_VALUE);
+      for (int c= 0; c < k; c++) {
+        for (int o= c + 1; o < k; o++) {
+          final double dr= centers[3 * c] - centers[3 * o];
+          final double dg= centers[3 * c + 1] - centers[3 * o + 1];
+          final double db= centers[3 * c + 2] - centers[3 * o + 2];
+          final double d= Math.sqrt( dr * dr + dg * dg + db * db) / 2;
+          halfGap[c]= Math.min( halfGap[c], d);
+          halfGap[o]= Math.min( halfGap[o], d);
+        }
+      }
+    }
+
+    /**
+     * Rounds a distance up to a {@code float}, so an upper bound stays one.
+     */
+    private float roundUp( double value)
+    {
+      final float result= (float) value;
+      return result < value ? Math.nextUp( result) : result;
+    }
+
+    /**
+     * Rounds a distance down to a {@code float}, so a lower bound stays one.
+     */
+    private float roundDown( double value)
+    {
+      final float result= (float) value;
+      return result > value ? Math.nextDown( result) : result;
+    }
+
+    /**
+     * Gets the squared distance of a pixel to a color.
+     */
+    private double distance( int r, int g, int b, int color)
+    {
+      final double dr= r - centers[3 * color];
+      final double dg= g - centers[3 * color + 1];
+      final double db= b - centers[3 * color + 2];
+      return dr * dr + dg * dg + db * db;
+    }
+  }
+}
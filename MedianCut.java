@@ -8,6 +8,10 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 
 /**
@@ -20,14 +24,93 @@ import java.util.PriorityQueue;
 public class MedianCut<DP extends DataPoint<DP>>
 {
 
+  /**
+   * clusters with fewer points are sorted by comparator, since the counting
+   * sort does not pay off for them
+   */
+  private static final int COUNTING_SORT_THRESHOLD= 64;
+
+  /** number of distinct values of a dimension of a data point */
+  private static final int NUM_VALUES= 256;
+
+  /**
+   * minimum number of points processed by a single task in parallel mode;
+   * smaller clusters are not divided into chunks
+   */
+  private static final int MIN_CHUNK_SIZE= 1 << 14;
+
   private final DataPointFactory<DP> pointFactory;
 
+  /** notified about the phases of each run, or {@code null} */
+  private MedianCutListener listener;
+
+  /** determines the order in which clusters are split */
+  private PriorityPolicy priorityPolicy= PriorityPolicy.LONGEST_SIDE;
+
   /**
+   * Creates a median cut for {@link DataPoint3Byte}s.
    */
-  // @SuppressWarnings("unchecked")
+  @SuppressWarnings("unchecked")
   public MedianCut()
   {
-    pointFactory= (DataPointFactory<DP>) new DataPoint3ByteFactory();
+    this( (DataPointFactory<DP>) new DataPoint3ByteFactory());
+  }
+
+  /**
+   * Creates a median cut for data points created by the specified factory.
+   * The instance holds no state of a run, so it may be shared by any number
+   * of threads.
+   *
+   * @param pointFactory
+   *        the factory to create the representative points with
+   */
+  public MedianCut( DataPointFactory<DP> pointFactory)
+  {
+    this.pointFactory= pointFactory;
+  }
+
+  /**
+   * Sets the listener to notify about the phases of each run. Set it before
+   * running the median cut.
+   *
+   * @param listener
+   *        the listener or {@code null} to run without instrumentation
+   */
+  public void setListener( MedianCutListener listener)
+  {
+    this.listener= listener;
+  }
+
+  /**
+   * Gets the listener notified about the phases of each run.
+   *
+   * @return the listener or {@code null}
+   */
+  public MedianCutListener getListener()
+  {
+    return listener;
+  }
+
+  /**
+   * Sets the policy that determines the order in which clusters are split.
+   * Set it before running the median cut.
+   *
+   * @param priorityPolicy
+   *        the policy, {@link PriorityPolicy#LONGEST_SIDE} by default
+   */
+  public void setPriorityPolicy( PriorityPolicy priorityPolicy)
+  {
+    if (priorityPolicy == null)
+      throw new NullPointerException( "priorityPolicy");
+    this.priorityPolicy= priorityPolicy;
+  }
+
+  /**
+   * Gets the policy that determines the order in which clusters are split.
+   */
+  public PriorityPolicy getPriorityPolicy()
+  {
+    return priorityPolicy;
   }
 
   /**
@@ -39,103 +122,458 @@ public class MedianCut<DP extends DataPoint<DP>>
    */
   public List<DP> medianCut( DP[] inputData, int desiredQuantizationLevels)
   {
+    final MedianCutListener listener= this.listener;
+    final long start= listener == null ? 0 : System.nanoTime();
     /**
-     * a queue with the Cluster having the longest side to have maximum priority
+     * a queue with the Cluster having the highest priority (by default the
+     * longest side) to be split first
      */
-    PriorityQueue<Cluster> blockQueue= new PriorityQueue<Cluster>();
+    IndexedHeap<Cluster> blockQueue= newHeap( desiredQuantizationLevels);
     // create initial block
-    Cluster block1= new Cluster( inputData);
+    Cluster block1= new Cluster( inputData, false, priorityPolicy);
     block1.shrink();
-    blockQueue.offer( block1);
-    // While the number of clusters is less than desired number...
-    while (blockQueue.size() < desiredQuantizationLevels
-      && blockQueue.peek().getPointCnt() > 1) {
+    blockQueue.offer( block1, block1.priority);
+    if (listener != null)
+      listener.initialized( inputData.length, System.nanoTime() - start);
+    split( blockQueue, desiredQuantizationLevels, null, 0, listener);
+    return getRepresentativePoints( blockQueue, listener);
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level, ending early if
+   * one of the specified criteria is met. Then fewer representative points
+   * are returned, those of the clusters split so far.
+   * 
+   * @param criteria
+   *        the criteria to end the run early
+   * @return the representative points, at most one for each desired
+   *         quantization level, and the criterion that ended the run
+   */
+  public MedianCutResult<DP> medianCut( DP[] inputData,
+    int desiredQuantizationLevels, StopCriteria criteria)
+  {
+    final MedianCutListener listener= this.listener;
+    final long start= System.nanoTime();
+    IndexedHeap<Cluster> blockQueue= newHeap( desiredQuantizationLevels);
+    // create initial block
+    Cluster block1= new Cluster( inputData, false, priorityPolicy);
+    block1.shrink();
+    blockQueue.offer( block1, block1.priority);
+    if (listener != null)
+      listener.initialized( inputData.length, System.nanoTime() - start);
+    final MedianCutResult.StopReason stopReason=
+      split( blockQueue, desiredQuantizationLevels, criteria, start,
+        listener);
+    final long processedPoints= inputData.length + block1.getSplitPointCnt();
+    return new MedianCutResult<DP>( getRepresentativePoints( blockQueue,
+      listener), stopReason, processedPoints);
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level, using the
+   * threads of the specified pool.<br>
+   * Clusters are split in advance in parallel, down to the depth a balanced
+   * cut into the desired number of quantization levels takes. Large clusters
+   * are sorted and shrunk by several tasks. Then the clusters are chosen in the
+   * same order as by {@link #medianCut(DataPoint[], int)}, splitting any
+   * cluster that was not split in advance. So both methods return the same
+   * representative points.
+   * 
+   * @return a list of representative points, one for each desired quantization
+   *         level.
+   */
+  public List<DP> medianCut( final DP[] inputData,
+    final int desiredQuantizationLevels, ForkJoinPool pool)
+  {
+    return pool.invoke( new RecursiveTask<List<DP>>() {
+
+      @Override
+      protected List<DP> compute()
+      {
+        final MedianCutListener listener= MedianCut.this.listener;
+        final long start= listener == null ? 0 : System.nanoTime();
+        IndexedHeap<Cluster> blockQueue= newHeap( desiredQuantizationLevels);
+        // create initial block
+        Cluster block1= new Cluster( inputData, true, priorityPolicy);
+        block1.shrink();
+        // depth of a balanced binary tree with the desired number of leaves
+        final int depth=
+          32 - Integer.numberOfLeadingZeros( Math.max( 1,
+            desiredQuantizationLevels) - 1);
+        new SplitTask( block1, depth).invoke();
+        blockQueue.offer( block1, block1.priority);
+        if (listener != null)
+          listener.initialized( inputData.length, System.nanoTime() - start);
+        split( blockQueue, desiredQuantizationLevels, null, 0, listener);
+        return getRepresentativePoints( blockQueue, listener);
+      }
+    });
+  }
 
-      // Find the largest side length of any side of any cluster..
+  /**
+   * Splits the clusters in the specified queue until there are as many as
+   * desired, no cluster is left that can be split or one of the specified
+   * criteria is met.
+   * 
+   * @param blockQueue
+   *        a queue with the Cluster having the highest priority to be split
+   *        first, holding the initial cluster only
+   * @param criteria
+   *        the criteria to end early or {@code null}
+   * @param runStart
+   *        the time the run started at, as of {@link System#nanoTime()}.
+   *        Ignored without criteria.
+   * @param listener
+   *        the listener to notify about each split or {@code null}
+   * @return the criterion that ended splitting
+   */
+  private MedianCutResult.StopReason split( IndexedHeap<Cluster> blockQueue,
+    int desiredQuantizationLevels, StopCriteria criteria, long runStart,
+    MedianCutListener listener)
+  {
+    int[] histogram= new int[NUM_VALUES];
+    long processedPoints= blockQueue.peek().getPointCnt();
+    // Until the number of clusters reaches the desired number...
+    while (true) {
+      if (blockQueue.size() >= desiredQuantizationLevels)
+        return MedianCutResult.StopReason.LEVELS_REACHED;
+      if (blockQueue.peek().getPointCnt() <= 1)
+        return MedianCutResult.StopReason.NO_CLUSTER_LEFT;
+      if (criteria != null) {
+        final Cluster block= blockQueue.peek();
+        processedPoints+= block.getPointCnt();
+        final MedianCutResult.StopReason stopReason=
+          criteria.check( block.longestSideLength(), processedPoints,
+            System.nanoTime() - runStart);
+        if (stopReason != null)
+          return stopReason;
+      }
+
+      // Find the cluster with the highest priority, by default the one with
+      // the largest side length of any side of any cluster..
       Cluster longestBlock= blockQueue.poll();
 
-      // split off block2 from longestBlock
-      Cluster block2= longestBlock.split();
-      // Shrink the two new clusters so that they are just large enough to
-      // contain their points.
-      longestBlock.shrink();
-      block2.shrink();
+      // split longestBlock into two blocks
+      if (listener == null) {
+        longestBlock.split( histogram);
+      } else {
+        final long start= System.nanoTime();
+        longestBlock.split( histogram);
+        listener.clusterSplit( longestBlock.getPointCnt(), System.nanoTime()
+          - start);
+      }
 
-      blockQueue.offer( longestBlock);
-      blockQueue.offer( block2);
+      blockQueue.offer( longestBlock.lower, longestBlock.lower.priority);
+      blockQueue.offer( longestBlock.upper, longestBlock.upper.priority);
     }
+  }
+
+  /**
+   * Finds a representative point for each cluster in the specified queue.
+   *
+   * @param blockQueue
+   *        a queue with the Cluster having the highest priority to be split
+   *        first, empty afterwards
+   * @param listener
+   *        the listener to notify or {@code null}
+   * @return a list of representative points, in the order of the queue
+   */
+  private List<DP> getRepresentativePoints( IndexedHeap<Cluster> blockQueue,
+    MedianCutListener listener)
+  {
+    final long start= listener == null ? 0 : System.nanoTime();
+    final int[] clusterSizes=
+      listener == null ? null : new int[blockQueue.size()];
     // find a representative point for each block and add it to the result...
     ArrayList<DP> result= new ArrayList<DP>();
     while ( !blockQueue.isEmpty()) {
       Cluster block= blockQueue.poll();
+      if (clusterSizes != null)
+        clusterSizes[result.size()]= block.getPointCnt();
       DP averagePoint= block.getRepresentativePoint();
       result.add( averagePoint);
     }
+    if (listener != null) {
+      listener.finished( clusterSizes, blockQueue.getComparisons(),
+        System.nanoTime() - start);
+    }
     return result;
   }
 
+  /**
+   * Creates a queue for the clusters of a run, sized for the clusters split
+   * off until the desired number of quantization levels is reached.
+   */
+  private IndexedHeap<Cluster> newHeap( int desiredQuantizationLevels)
+  {
+    return new IndexedHeap<Cluster>( 2 * Math.min( desiredQuantizationLevels,
+      1 << 16));
+  }
+
+  /**
+   * Creates a queue with the Cluster having the longest side to have maximum
+   * priority. If instrumented, the queue counts the comparisons.
+   *
+   * @param listener
+   *        the listener to notify or {@code null}
+   */
+  static <C extends Comparable<C>> PriorityQueue<C> newQueue(
+    MedianCutListener listener)
+  {
+    if (listener == null)
+      return new PriorityQueue<C>();
+    return new PriorityQueue<C>( 11, new CountingComparator<C>());
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * Splits a cluster and its sub-clusters in advance, down to a given depth.
+   * Independent clusters are split in parallel.
+   * 
+   * @author Martin Weber
+   */
+  private class SplitTask extends RecursiveAction
+  {
+    private static final long serialVersionUID= 1L;
+
+    private final Cluster block;
+
+    /** number of levels of sub-clusters to split */
+    private final int depth;
+
+    SplitTask( Cluster block, int depth)
+    {
+      this.block= block;
+      this.depth= depth;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (depth == 0 || block.getPointCnt() <= 1)
+        return;
+      block.split( new int[NUM_VALUES]);
+      invokeAll( new SplitTask( block.lower, depth - 1), new SplitTask(
+        block.upper, depth - 1));
+    }
+  }
+
+  /**
+   * Compares objects by their natural ordering and counts the comparisons.
+   *
+   * @author Martin Weber
+   */
+  static class CountingComparator<C extends Comparable<C>> implements
+    Comparator<C>
+  {
+    /** the number of comparisons so far */
+    int count;
+
+    public int compare( C lhs, C rhs)
+    {
+      count++;
+      return lhs.compareTo( rhs);
+    }
+  }
+
+  /**
+   * An action to perform on one of the chunks the points of a cluster are
+   * divided into for parallel processing.
+   * 
+   * @author Martin Weber
+   */
+  private interface ChunkAction
+  {
+    /**
+     * Performs the action on the points in the specified range.
+     * 
+     * @param chunk
+     *        the number of the chunk
+     * @param from
+     *        the index of the first point of the chunk
+     * @param to
+     *        the index after the last point of the chunk
+     */
+    void run( int chunk, int from, int to);
+  }
+
+  /**
+   * The bounds of and the sum over a number of points, gathered point by
+   * point.
+   * 
+   * @author Martin Weber
+   */
+  private class Statistics
+  {
+    /** the values of the points at two opposite corners of the bounds. */
+    private final int[] min;
+
+    private final int[] max;
+
+    /** the sum of the values of the points, for each dimension */
+    private final long[] sum;
+
+    /**
+     * Creates empty statistics.
+     * 
+     * @param numDimensions
+     *        number of dimensions of the points
+     */
+    Statistics( int numDimensions)
+    {
+      min= new int[numDimensions];
+      Arrays.fill( min, Integer.MAX_VALUE);
+      max= new int[numDimensions];
+      Arrays.fill( max, Integer.MIN_VALUE);
+      sum= new long[numDimensions];
+    }
+
+    /**
+     * Adds the specified point.
+     */
+    void add( DP point)
+    {
+      for (short dim= 0; dim < sum.length; dim++) {
+        final int value= point.getValue( dim);
+        if (value < min[dim])
+          min[dim]= value;
+        if (value > max[dim])
+          max[dim]= value;
+        sum[dim]+= value;
+      }
+    }
+
+    /**
+     * Adds the specified points.
+     * 
+     * @param from
+     *        the index of the first point
+     * @param to
+     *        the index after the last point
+     */
+    void add( DP[] points, int from, int to)
+    {
+      for (int i= from; i < to; i++) {
+        add( points[i]);
+      }
+    }
+
+    /**
+     * Adds the points the specified statistics were gathered over.
+     */
+    void add( Statistics other)
+    {
+      for (int dim= 0; dim < sum.length; dim++) {
+        if (other.min[dim] < min[dim])
+          min[dim]= other.min[dim];
+        if (other.max[dim] > max[dim])
+          max[dim]= other.max[dim];
+        sum[dim]+= other.sum[dim];
+      }
+    }
+  }
+
   /**
    * A cluster containing a number of points in n-dimensional space. For
    * efficiency reasons, the cluster is implemented as a rectangular block (a
-   * cuboidal).
+   * cuboidal).<br>
+   * The bounds of the block and the sum over its points are gathered while
+   * its parent block is split, so a block needs no extra passes over its
+   * points to shrink it or to find its representative point. Its priority is
+   * computed once its bounds are known.
    * 
    * @author Martin Weber
    */
-  private class Cluster implements Comparable<Cluster>
+  private class Cluster
   {
     /** value storage. necessary that we have random access to the points */
     private final DP[] points;
 
+    /** scratch storage of the same size as {@link #points} */
+    private final DP[] scratch;
+
     /** number of dimensions in DataPoint3Byte */
     private final int numDimensions;
 
+    /** whether large clusters are processed by several tasks */
+    private final boolean parallel;
+
+    /** determines the priority of the cluster */
+    private final PriorityPolicy policy;
+
     /** The offset is the first index of the storage that is used. */
     private final int offset;
 
     /** The count is the number of points in the Cluster. */
-    private int count;
+    private final int count;
 
-    /** the points corresponding to two opposite corners of the block. */
-    private DP minCorner;
+    /** the bounds of (the corners of the block) and the sum over the points */
+    private Statistics statistics;
 
-    private DP maxCorner;
+    /** the priority of the cluster to be split, cached */
+    private long priority;
+
+    /** the two blocks this block was split into, or {@code null} */
+    private Cluster lower;
+
+    private Cluster upper;
 
     /**
      * @param points
+     * @param parallel
+     *        whether large clusters are processed by several tasks. If
+     *        {@code true}, the methods of the cluster must be called from
+     *        within a {@link ForkJoinPool}.
+     * @param policy
+     *        determines the priority of the cluster and its sub-clusters
      */
-    public Cluster( DP[] points)
+    public Cluster( DP[] points, boolean parallel, PriorityPolicy policy)
     {
       this.points= points;
+      // same runtime type as the points
+      this.scratch= points.clone();
+      this.parallel= parallel;
+      this.policy= policy;
       numDimensions= points[0].getDimensions();
       offset= 0;
       count= points.length;
-      initCorners();
     }
 
     /**
-     * Private constructor which shares value array for speed.
+     * Private constructor which shares value and scratch arrays for speed.
      * 
      * @param offset
      * @param count
-     * @param points
+     * @param parent
+     *        the cluster to share the arrays with
+     * @param statistics
+     *        the statistics gathered over the points of the cluster
      */
-    private Cluster( int offset, int count, DP[] points)
+    private Cluster( int offset, int count, Cluster parent,
+      Statistics statistics)
     {
-      this.points= points;
-      numDimensions= points[0].getDimensions();
+      this.points= parent.points;
+      this.scratch= parent.scratch;
+      this.parallel= parent.parallel;
+      this.policy= parent.policy;
+      numDimensions= parent.numDimensions;
       this.offset= offset;
       this.count= count;
-      initCorners();
+      setStatistics( statistics);
     }
 
     /**
+     * Sets the statistics gathered over the points and computes the priority
+     * from them.
      */
-    private void initCorners()
+    private void setStatistics( Statistics statistics)
     {
-      minCorner= MedianCut.this.pointFactory.createPoint();
-      minCorner.moveToMinimum();
-      maxCorner= MedianCut.this.pointFactory.createPoint();
-      maxCorner.moveToMaximum();
+      this.statistics= statistics;
+      priority= policy.getPriority( count, statistics.min, statistics.max);
     }
 
     /**
@@ -146,6 +584,17 @@ public class MedianCut<DP extends DataPoint<DP>>
       return this.count;
     }
 
+    /**
+     * Gets the number of points processed by splitting this block and its
+     * sub-blocks.
+     */
+    long getSplitPointCnt()
+    {
+      if (lower == null)
+        return 0;
+      return count + lower.getSplitPointCnt() + upper.getSplitPointCnt();
+    }
+
     /**
      * figures out which side (dimension) of the block is longest.
      * 
@@ -153,10 +602,12 @@ public class MedianCut<DP extends DataPoint<DP>>
      */
     private short longestSideIndex()
     {
-      int maxLen= maxCorner.difference( (short) 0, minCorner);
+      final int[] min= statistics.min;
+      final int[] max= statistics.max;
+      int maxLen= max[0] - min[0];
       short dimension= 0;
       for (short dim= 1; dim < numDimensions; dim++) {
-        int diff= maxCorner.difference( dim, minCorner);
+        int diff= max[dim] - min[dim];
         if (diff > maxLen) {
           maxLen= diff;
           dimension= dim;
@@ -171,54 +622,249 @@ public class MedianCut<DP extends DataPoint<DP>>
     private int longestSideLength()
     {
       short dim= longestSideIndex();
-      return maxCorner.difference( dim, minCorner);
+      return statistics.max[dim] - statistics.min[dim];
     }
 
     /**
      * Shrinks a block so that it just barely contains its points; that is, its
      * minimum and maximum coordinates are chosen according to the minimum and
-     * maximum coordinates of its points.
+     * maximum coordinates of its points. Only needed for the initial block,
+     * since the sub-blocks get shrunk while splitting.
      */
     public void shrink()
     {
-      for (short dim= 0; dim < numDimensions; dim++) {
-        final byte value= points[offset].getValue( dim);
-        minCorner.setValue( dim, value);
-        maxCorner.setValue( dim, value);
-      }
-      for (int i= 1; i < count; i++) {
-        for (short dim= 0; dim < numDimensions; dim++) {
-          minCorner.setMin( dim, points[offset + i]);
-          maxCorner.setMax( dim, points[offset + i]);
+      final Statistics statistics= new Statistics( numDimensions);
+      final int chunks= getChunkCount();
+      if (chunks > 1) {
+        final List<Statistics> chunkStatistics= newStatistics( chunks);
+        forEachChunk( chunks, new ChunkAction() {
+
+          public void run( int chunk, int from, int to)
+          {
+            chunkStatistics.get( chunk).add( points, from, to);
+          }
+        });
+        for (Statistics stats : chunkStatistics) {
+          statistics.add( stats);
         }
+      } else {
+        statistics.add( points, offset, offset + count);
       }
+      setStatistics( statistics);
     }
 
     /**
      * Partitions the points in this block into two sublists. Splitting is done
      * along the largest side in such a way that half the contained points fall
-     * into a new cluster.
+     * into each new cluster. The new clusters are shrunk and made available
+     * as {@link #lower} and {@link #upper}. Does nothing, if this block was
+     * already split. Requires the block to be shrunk.
      * 
-     * @return a newly created block with the splitted off points
+     * @param histogram
+     *        counters used for sorting, one for each value of a dimension
      */
-    public Cluster split()
+    public void split( int[] histogram)
     {
+      if (lower != null)
+        return; // already split in advance
       // partition the points into two sublists
       final short longestSideIndex= longestSideIndex();
+      final int median= (count + 1) / 2;
+      final Statistics lowerStatistics= new Statistics( numDimensions);
+      final Statistics upperStatistics= new Statistics( numDimensions);
+      final int chunks= getChunkCount();
+      final boolean allEqual=
+        statistics.min[longestSideIndex] == statistics.max[longestSideIndex];
+      if (count < COUNTING_SORT_THRESHOLD || allEqual) {
+        // all points are equal in that dimension: already sorted
+        if ( !allEqual)
+          sort( longestSideIndex);
+        lowerStatistics.add( points, offset, offset + median);
+        upperStatistics.add( points, offset + median, offset + count);
+      } else if (chunks > 1) {
+        parallelCountingSort( longestSideIndex, chunks, lowerStatistics,
+          upperStatistics);
+      } else {
+        countingSort( longestSideIndex, histogram, lowerStatistics,
+          upperStatistics);
+      }
+      lower= new Cluster( offset, median, this, lowerStatistics);
+      upper=
+        new Cluster( offset + median, count - median, this, upperStatistics);
+    }
+
+    /**
+     * Sorts the points in this block by their value in the specified
+     * dimension, using a comparator.
+     */
+    private void sort( final short dimension)
+    {
       Comparator<DP> pointComparator= new Comparator<DP>() {
 
         public int compare( DP lhs, DP rhs)
         {
-          return lhs.difference( longestSideIndex, rhs);
+          return lhs.difference( dimension, rhs);
         }
 
       };
       Arrays.sort( points, offset, offset + count, pointComparator);
-      int median= (count + 1) / 2;
-      Cluster block2= new Cluster( offset + median, count - median, points);
-      this.count= median;
-      this.initCorners();
-      return block2;
+    }
+
+    /**
+     * Sorts the points in this block by their value in the specified
+     * dimension in linear time. Since a dimension can take only
+     * {@value #NUM_VALUES} values, the points are distributed to their value
+     * by a stable counting sort, which yields the same order as
+     * {@link #sort(short)}. While distributing, the statistics of the two
+     * halves are gathered. Requires the block to be shrunk.
+     * 
+     * @param histogram
+     *        counters used for sorting, one for each value of a dimension
+     * @param lowerStatistics
+     *        receives the statistics of the lower half of the sorted points
+     * @param upperStatistics
+     *        receives the statistics of the upper half of the sorted points
+     */
+    private void countingSort( short dimension, int[] histogram,
+      Statistics lowerStatistics, Statistics upperStatistics)
+    {
+      final int min= statistics.min[dimension] - Byte.MIN_VALUE;
+      final int max= statistics.max[dimension] - Byte.MIN_VALUE;
+      final int end= offset + count;
+      for (int v= min; v <= max; v++) {
+        histogram[v]= 0;
+      }
+      for (int i= offset; i < end; i++) {
+        histogram[points[i].getValue( dimension) - Byte.MIN_VALUE]++;
+      }
+      // turn counts into start indices..
+      for (int v= min, start= offset; v <= max; v++) {
+        final int cnt= histogram[v];
+        histogram[v]= start;
+        start+= cnt;
+      }
+      final int split= offset + (count + 1) / 2;
+      for (int i= offset; i < end; i++) {
+        final DP point= points[i];
+        final int idx=
+          histogram[point.getValue( dimension) - Byte.MIN_VALUE]++;
+        scratch[idx]= point;
+        (idx < split ? lowerStatistics : upperStatistics).add( point);
+      }
+      System.arraycopy( scratch, offset, points, offset, count);
+    }
+
+    /**
+     * Sorts the points in this block like
+     * {@link #countingSort(short, int[], Statistics, Statistics)} does, but by
+     * several tasks, each counting and distributing the points of one chunk.
+     * The start indices of a value are assigned in the order of the chunks, so
+     * the sort remains stable.
+     */
+    private void parallelCountingSort( final short dimension, int chunks,
+      Statistics lowerStatistics, Statistics upperStatistics)
+    {
+      final int min= statistics.min[dimension] - Byte.MIN_VALUE;
+      final int max= statistics.max[dimension] - Byte.MIN_VALUE;
+      final int[][] histograms= new int[chunks][NUM_VALUES];
+      forEachChunk( chunks, new ChunkAction() {
+
+        public void run( int chunk, int from, int to)
+        {
+          final int[] histogram= histograms[chunk];
+          for (int i= from; i < to; i++) {
+            histogram[points[i].getValue( dimension) - Byte.MIN_VALUE]++;
+          }
+        }
+      });
+      // turn counts into start indices..
+      for (int v= min, start= offset; v <= max; v++) {
+        for (int c= 0; c < chunks; c++) {
+          final int cnt= histograms[c][v];
+          histograms[c][v]= start;
+          start+= cnt;
+        }
+      }
+      final int split= offset + (count + 1) / 2;
+      final List<Statistics> lowerChunkStatistics= newStatistics( chunks);
+      final List<Statistics> upperChunkStatistics= newStatistics( chunks);
+      forEachChunk( chunks, new ChunkAction() {
+
+        public void run( int chunk, int from, int to)
+        {
+          final int[] histogram= histograms[chunk];
+          final Statistics lower= lowerChunkStatistics.get( chunk);
+          final Statistics upper= upperChunkStatistics.get( chunk);
+          for (int i= from; i < to; i++) {
+            final DP point= points[i];
+            final int idx=
+              histogram[point.getValue( dimension) - Byte.MIN_VALUE]++;
+            scratch[idx]= point;
+            (idx < split ? lower : upper).add( point);
+          }
+        }
+      });
+      forEachChunk( chunks, new ChunkAction() {
+
+        public void run( int chunk, int from, int to)
+        {
+          System.arraycopy( scratch, from, points, from, to - from);
+        }
+      });
+      for (int c= 0; c < chunks; c++) {
+        lowerStatistics.add( lowerChunkStatistics.get( c));
+        upperStatistics.add( upperChunkStatistics.get( c));
+      }
+    }
+
+    /**
+     * Creates the specified number of empty statistics.
+     */
+    private List<Statistics> newStatistics( int size)
+    {
+      List<Statistics> result= new ArrayList<Statistics>( size);
+      for (int i= 0; i < size; i++) {
+        result.add( new Statistics( numDimensions));
+      }
+      return result;
+    }
+
+    /**
+     * Gets the number of chunks to divide the points of this block into for
+     * parallel processing.
+     * 
+     * @return the number of chunks, {@code 1} if this block is to be
+     *         processed by the calling thread only
+     */
+    private int getChunkCount()
+    {
+      if ( !parallel || count < 2 * MIN_CHUNK_SIZE)
+        return 1;
+      return Math.min( 4 * ForkJoinTask.getPool().getParallelism(), count
+        / MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Performs the specified action on each chunk of the points of this block
+     * in parallel and waits for all to complete.
+     */
+    private void forEachChunk( final int chunks, final ChunkAction action)
+    {
+      List<RecursiveAction> tasks= new ArrayList<RecursiveAction>( chunks);
+      for (int c= 0; c < chunks; c++) {
+        final int chunk= c;
+        final int from= offset + (int) ((long) count * c / chunks);
+        final int to= offset + (int) ((long) count * (c + 1) / chunks);
+        tasks.add( new RecursiveAction() {
+
+          @Override
+          protected void compute()
+          {
+            action.run( chunk, from, to);
+          }
+        });
+      }
+      ForkJoinTask.invokeAll( tasks);
     }
 
     /**
@@ -231,25 +877,12 @@ public class MedianCut<DP extends DataPoint<DP>>
     {
       // To find a representative point for each block, we merely compute the
       // arithmetic mean (average) of all points in the cluster:
-      long[] sum= new long[numDimensions];
-      for (int i= 0; i < count; i++) {
-        for (short dim= 0; dim < numDimensions; dim++) {
-          sum[dim]+= points[offset + i].getValue( dim);
-        }
-      }
+      final long[] sum= statistics.sum;
       DP averagePoint= MedianCut.this.pointFactory.createPoint();
       for (short dim= 0; dim < numDimensions; dim++) {
         averagePoint.setValue( dim, (byte) (sum[dim] / count));
       }
       return averagePoint;
     }
-
-    /**
-     * {@inheritDoc} Compares two blocks by the length of their longest side.
-     */
-    public int compareTo( Cluster rhs)
-    {
-      return rhs.longestSideLength() - this.longestSideLength();
-    }
   }
 }
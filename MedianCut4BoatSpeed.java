@@ -21,12 +21,37 @@ import java.util.PriorityQueue;
 public class MedianCut4BoatSpeed
 {
 
+  /** notified about the phases of each run, or {@code null} */
+  private MedianCutListener listener;
+
   /**
    */
   // @SuppressWarnings("unchecked")
   public MedianCut4BoatSpeed()
   {}
 
+  /**
+   * Sets the listener to notify about the phases of each run. Set it before
+   * running the median cut.
+   *
+   * @param listener
+   *        the listener or {@code null} to run without instrumentation
+   */
+  public void setListener( MedianCutListener listener)
+  {
+    this.listener= listener;
+  }
+
+  /**
+   * Gets the listener notified about the phases of each run.
+   *
+   * @return the listener or {@code null}
+   */
+  public MedianCutListener getListener()
+  {
+    return listener;
+  }
+
   /**
    * Determines the most representative values on the range of the specifed
    * input data for the desired number of quantization level.
@@ -37,22 +62,29 @@ public class MedianCut4BoatSpeed
   public List<MedianCut4BoatSpeed.Cluster> medianCut( List<Float> inputData,
     int desiredQuantizationLevels)
   {
+    final MedianCutListener listener= this.listener;
+    long start= listener == null ? 0 : System.nanoTime();
     /**
      * a queue with the ClusterImpl having the longest side to have maximum
      * priority
      */
-    PriorityQueue<ClusterImpl> blockQueue= new PriorityQueue<ClusterImpl>();
+    PriorityQueue<ClusterImpl> blockQueue= MedianCut.newQueue( listener);
     // create initial block
     ClusterImpl longestBlock=
       new ClusterImpl( inputData.toArray( new Float[inputData.size()]));
     longestBlock.shrink();
     blockQueue.offer( longestBlock);
+    if (listener != null)
+      listener.initialized( inputData.size(), System.nanoTime() - start);
     // While the number of clusters is less than desired number...
     while (blockQueue.size() < desiredQuantizationLevels
       && blockQueue.peek().getPointCnt() > 1) {
 
       // Find the largest side length of any side of any cluster..
       longestBlock= blockQueue.poll();
+      final int pointCount= longestBlock.getPointCnt();
+      if (listener != null)
+        start= System.nanoTime();
 
       // split off block2 from longestBlock
       ClusterImpl block2= longestBlock.split();
@@ -60,16 +92,180 @@ public class MedianCut4BoatSpeed
       // contain their points.
       longestBlock.shrink();
       block2.shrink();
+      if (listener != null)
+        listener.clusterSplit( pointCount, System.nanoTime() - start);
 
       blockQueue.offer( longestBlock);
       blockQueue.offer( block2);
     }
     // for each block add it to the result...
     ArrayList<Cluster> result= new ArrayList<Cluster>(blockQueue.size());
+    final int[] clusterSizes=
+      listener == null ? null : new int[blockQueue.size()];
     while ( !blockQueue.isEmpty()) {
       ClusterImpl block= blockQueue.poll();
+      if (clusterSizes != null)
+        clusterSizes[result.size()]= block.getPointCnt();
       result.add( block);
     }
+    if (listener != null) {
+      // representative points are computed on demand
+      listener.finished( clusterSizes,
+        ((MedianCut.CountingComparator<?>) blockQueue.comparator()).count, 0);
+    }
+    return result;
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level, like
+   * {@link #medianCut(List, int)} does, but without boxing the values.<br>
+   * The specified range of the input array gets sorted in place; each cluster
+   * then covers a contiguous range of it.
+   *
+   * @param values
+   *        the input data
+   * @param offset
+   *        the index of the first value to use
+   * @param length
+   *        the number of values to use
+   * @return the clusters, one for each desired quantization level, in the
+   *         same order as returned by {@link #medianCut(List, int)}
+   */
+  public Clusters medianCut( float[] values, int offset, int length,
+    int desiredQuantizationLevels)
+  {
+    if (offset < 0 || length < 0 || offset + length > values.length)
+      throw new IndexOutOfBoundsException( "offset=" + offset + ", length="
+        + length);
+    final MedianCutListener listener= this.listener;
+    long start= listener == null ? 0 : System.nanoTime();
+    Arrays.sort( values, offset, offset + length);
+    PriorityQueue<Range> blockQueue= MedianCut.newQueue( listener);
+    if (length > 0) {
+      blockQueue.offer( new Range( values, offset, length));
+    }
+    if (listener != null)
+      listener.initialized( length, System.nanoTime() - start);
+    while (blockQueue.size() > 0
+      && blockQueue.size() < desiredQuantizationLevels
+      && blockQueue.peek().count > 1) {
+      Range longestBlock= blockQueue.poll();
+      if (listener != null)
+        start= System.nanoTime();
+      // the values are sorted, so the median splits off the upper half
+      final int median= (longestBlock.count + 1) / 2;
+      blockQueue.offer( new Range( values, longestBlock.offset, median));
+      blockQueue.offer( new Range( values, longestBlock.offset + median,
+        longestBlock.count - median));
+      if (listener != null)
+        listener.clusterSplit( longestBlock.count, System.nanoTime() - start);
+    }
+    if (listener != null)
+      start= System.nanoTime();
+    Clusters result= new Clusters( blockQueue.size());
+    for (int i= 0; !blockQueue.isEmpty(); i++) {
+      Range block= blockQueue.poll();
+      result.offsets[i]= block.offset;
+      result.counts[i]= block.count;
+      result.minima[i]= values[block.offset];
+      result.maxima[i]= values[block.offset + block.count - 1];
+      double sum= 0.0;
+      final int end= block.offset + block.count;
+      for (int j= block.offset; j < end; j++) {
+        sum+= values[j];
+      }
+      result.means[i]= (float) (sum / block.count);
+    }
+    if (listener != null) {
+      listener.finished( result.counts.clone(),
+        ((MedianCut.CountingComparator<?>) blockQueue.comparator()).count,
+        System.nanoTime() - start);
+    }
+    return result;
+  }
+
+  /**
+   * Determines the most representative values of the distribution summarized
+   * by the specified histogram for the desired number of quantization level,
+   * like {@link #medianCut(float[], int, int, int)} does for the values
+   * themselves. Since the values in a bin are not told apart, clusters are
+   * split at the bin boundary nearest to the median; so the boundaries are
+   * off by at most one bin width and a single bin is never split. The means
+   * and bounds of the clusters are exact. The listener is notified with the
+   * number of bins instead of the number of points.
+   *
+   * @param histogram
+   *        the histogram, holding at most {@code Integer.MAX_VALUE} values
+   * @return the clusters, one for each desired quantization level. The
+   *         offset of a cluster is the number of values below it, that is,
+   *         its index in the sorted values.
+   */
+  public Clusters medianCut( SpeedHistogram histogram,
+    int desiredQuantizationLevels)
+  {
+    if (histogram.getTotalCount() > Integer.MAX_VALUE)
+      throw new IllegalArgumentException( "too many values: "
+        + histogram.getTotalCount());
+    final MedianCutListener listener= this.listener;
+    long start= listener == null ? 0 : System.nanoTime();
+    // gather the non-empty bins
+    final int[] slots= histogram.getSortedSlots();
+    final int bins= slots.length;
+    final Bins sorted= new Bins( bins);
+    for (int b= 0; b < bins; b++) {
+      final int slot= slots[b];
+      sorted.offsets[b + 1]=
+        sorted.offsets[b] + (int) histogram.getCount( slot);
+      sorted.sums[b]= histogram.getSum( slot);
+      sorted.minima[b]= histogram.getMinimum( slot);
+      sorted.maxima[b]= histogram.getMaximum( slot);
+    }
+    PriorityQueue<BinRange> blockQueue= MedianCut.newQueue( listener);
+    if (bins > 0) {
+      blockQueue.offer( new BinRange( sorted, 0, bins));
+    }
+    if (listener != null)
+      listener.initialized( bins, System.nanoTime() - start);
+    while (blockQueue.size() > 0
+      && blockQueue.size() < desiredQuantizationLevels
+      && blockQueue.peek().count > 1) {
+      BinRange longestBlock= blockQueue.poll();
+      if (listener != null)
+        start= System.nanoTime();
+      final int split= sorted.split( longestBlock.first, longestBlock.count);
+      blockQueue.offer( new BinRange( sorted, longestBlock.first, split
+        - longestBlock.first));
+      blockQueue.offer( new BinRange( sorted, split, longestBlock.first
+        + longestBlock.count - split));
+      if (listener != null)
+        listener.clusterSplit( longestBlock.count, System.nanoTime() - start);
+    }
+    if (listener != null)
+      start= System.nanoTime();
+    Clusters result= new Clusters( blockQueue.size());
+    final int[] clusterSizes=
+      listener == null ? null : new int[blockQueue.size()];
+    for (int i= 0; !blockQueue.isEmpty(); i++) {
+      BinRange block= blockQueue.poll();
+      final int end= block.first + block.count;
+      result.offsets[i]= sorted.offsets[block.first];
+      result.counts[i]= sorted.offsets[end] - sorted.offsets[block.first];
+      result.minima[i]= sorted.minima[block.first];
+      result.maxima[i]= sorted.maxima[end - 1];
+      double sum= 0.0;
+      for (int b= block.first; b < end; b++) {
+        sum+= sorted.sums[b];
+      }
+      result.means[i]= (float) (sum / result.counts[i]);
+      if (clusterSizes != null)
+        clusterSizes[i]= block.count;
+    }
+    if (listener != null) {
+      listener.finished( clusterSizes,
+        ((MedianCut.CountingComparator<?>) blockQueue.comparator()).count,
+        System.nanoTime() - start);
+    }
     return result;
   }
 
@@ -103,6 +299,215 @@ public class MedianCut4BoatSpeed
 
   }
 
+  /**
+   * The clusters determined by {@link MedianCut4BoatSpeed#medianCut(float[],
+   * int, int, int)} or {@link MedianCut4BoatSpeed#medianCut(SpeedHistogram,
+   * int)}, held in flat arrays.
+   *
+   * @author Martin Weber
+   */
+  public static class Clusters
+  {
+    private final int[] offsets;
+
+    private final int[] counts;
+
+    private final float[] minima;
+
+    private final float[] maxima;
+
+    private final float[] means;
+
+    private Clusters( int size)
+    {
+      offsets= new int[size];
+      counts= new int[size];
+      minima= new float[size];
+      maxima= new float[size];
+      means= new float[size];
+    }
+
+    /**
+     * Gets the number of clusters.
+     */
+    public int size()
+    {
+      return counts.length;
+    }
+
+    /**
+     * Gets the index in the sorted input array of the first value of the
+     * specified cluster.
+     */
+    public int getOffset( int cluster)
+    {
+      return offsets[cluster];
+    }
+
+    /**
+     * Gets the number of values in the specified cluster.
+     */
+    public int getPointCnt( int cluster)
+    {
+      return counts[cluster];
+    }
+
+    /**
+     * Gets the minimum value in the specified cluster.
+     */
+    public float getMinimum( int cluster)
+    {
+      return minima[cluster];
+    }
+
+    /**
+     * Gets the maximum value in the specified cluster.
+     */
+    public float getMaximum( int cluster)
+    {
+      return maxima[cluster];
+    }
+
+    /**
+     * Gets the arithmetic mean of the values in the specified cluster.
+     */
+    public float getMean( int cluster)
+    {
+      return means[cluster];
+    }
+
+    /**
+     * Gets the arithmetic means of the values in all clusters.
+     *
+     * @return a copy of the means
+     */
+    public float[] getMeans()
+    {
+      return means.clone();
+    }
+  }
+
+  /**
+   * A range of sorted values to split, as used by
+   * {@link MedianCut4BoatSpeed#medianCut(float[], int, int, int)}.
+   *
+   * @author Martin Weber
+   */
+  private static class Range implements Comparable<Range>
+  {
+    private final int offset;
+
+    private final int count;
+
+    /** the length of the range of values */
+    private final float length;
+
+    Range( float[] values, int offset, int count)
+    {
+      this.offset= offset;
+      this.count= count;
+      this.length= values[offset + count - 1] - values[offset];
+    }
+
+    /**
+     * {@inheritDoc} Compares two ranges by their length.
+     */
+    public int compareTo( Range rhs)
+    {
+      return Float.compare( rhs.length, this.length);
+    }
+  }
+
+  /**
+   * The non-empty bins of a {@link SpeedHistogram}, in order, as used by
+   * {@link MedianCut4BoatSpeed#medianCut(SpeedHistogram, int)}.
+   *
+   * @author Martin Weber
+   */
+  private static class Bins
+  {
+    /**
+     * the number of values below each bin, followed by the total number of
+     * values
+     */
+    private final int[] offsets;
+
+    private final double[] sums;
+
+    private final float[] minima;
+
+    private final float[] maxima;
+
+    Bins( int size)
+    {
+      offsets= new int[size + 1];
+      sums= new double[size];
+      minima= new float[size];
+      maxima= new float[size];
+    }
+
+    /**
+     * Finds the bin boundary nearest to the median of the values in the
+     * specified bins.
+     *
+     * @param first
+     *        the index of the first bin
+     * @param count
+     *        the number of bins, at least two
+     * @return the index of the first bin above the boundary
+     */
+    int split( int first, int count)
+    {
+      final int end= first + count;
+      // the lower half gets the larger half, like when splitting the values
+      final long median=
+        offsets[first] + (offsets[end] - (long) offsets[first] + 1) / 2;
+      int split=
+        Arrays.binarySearch( offsets, first + 1, end, (int) median);
+      if (split < 0) {
+        split= -split - 1;
+        // offsets[split - 1] < median < offsets[split]
+        if (split > first + 1
+          && median - offsets[split - 1] < offsets[split] - median)
+          split--;
+      }
+      return Math.min( split, end - 1);
+    }
+  }
+
+  /**
+   * A range of bins to split, as used by
+   * {@link MedianCut4BoatSpeed#medianCut(SpeedHistogram, int)}.
+   *
+   * @author Martin Weber
+   */
+  private static class BinRange implements Comparable<BinRange>
+  {
+    /** the index of the first bin */
+    private final int first;
+
+    /** the number of bins */
+    private final int count;
+
+    /** the length of the range of values */
+    private final float length;
+
+    BinRange( Bins bins, int first, int count)
+    {
+      this.first= first;
+      this.count= count;
+      this.length= bins.maxima[first + count - 1] - bins.minima[first];
+    }
+
+    /**
+     * {@inheritDoc} Compares two ranges by their length.
+     */
+    public int compareTo( BinRange rhs)
+    {
+      return Float.compare( rhs.length, this.length);
+    }
+  }
+
   /**
    * A cluster containing a number of points in n-dimensional space. For
    * efficiency reasons, the cluster is implemented as a rectangular block (a
@@ -243,7 +648,7 @@ public class MedianCut4BoatSpeed
       for (int i= 0; i < count; i++) {
         sum+= points[offset + i].floatValue();
       }
-      Float averagePoint= new Float( sum / count);
+      Float averagePoint= Float.valueOf( (float) (sum / count));
       return averagePoint;
     }
 
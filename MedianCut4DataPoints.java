@@ -0,0 +1,310 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+
+/**
+ * Median cut algorithm, based on <a
+ * href="http://en.literateprograms.org/Median_cut_algorithm_(C_Plus_Plus)"
+ * >Median cut algorithm (C Plus Plus)</a>.<br>
+ * Operates on {@link DataPoints}, that is on points of any number of
+ * dimensions with values not limited to bytes, held in flat arrays. The
+ * points themselves are not moved; instead, the clusters are ranges of an
+ * array of point indices. Clusters are split like {@link MedianCut} does,
+ * sorting the points stably by their value on the longest side.
+ *
+ * @param <T>
+ *        the type of the point set
+ * @author Martin Weber
+ */
+public class MedianCut4DataPoints<T extends DataPoints<T>>
+{
+
+  /**
+   */
+  public MedianCut4DataPoints()
+  {}
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level.
+   *
+   * @return a point set with the representative points, one for each desired
+   *         quantization level. The values are the arithmetic means of the
+   *         values of the points in each cluster, converted to the type of
+   *         values of the input data.
+   */
+  public T medianCut( T inputData, int desiredQuantizationLevels)
+  {
+    if (inputData.size() == 0)
+      return inputData.createPoints( 0);
+    /**
+     * a queue with the Cluster having the longest side to have maximum priority
+     */
+    PriorityQueue<Cluster> blockQueue= new PriorityQueue<Cluster>();
+    // create initial block
+    Cluster block1= new Cluster( inputData);
+    block1.shrink();
+    blockQueue.offer( block1);
+    // While the number of clusters is less than desired number...
+    while (blockQueue.size() < desiredQuantizationLevels
+      && blockQueue.peek().getPointCnt() > 1) {
+
+      // Find the largest side length of any side of any cluster..
+      Cluster longestBlock= blockQueue.poll();
+
+      // split off block2 from longestBlock, both get shrunk while splitting
+      Cluster block2= longestBlock.split();
+
+      blockQueue.offer( longestBlock);
+      blockQueue.offer( block2);
+    }
+    // find a representative point for each block and add it to the result...
+    T result= inputData.createPoints( blockQueue.size());
+    for (int i= 0; !blockQueue.isEmpty(); i++) {
+      Cluster block= blockQueue.poll();
+      block.getRepresentativePoint( result, i);
+    }
+    return result;
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * A cluster containing a number of points in n-dimensional space. For
+   * efficiency reasons, the cluster is implemented as a rectangular block (a
+   * cuboidal).
+   *
+   * @author Martin Weber
+   */
+  private class Cluster implements Comparable<Cluster>
+  {
+    /** value storage */
+    private final T points;
+
+    /**
+     * the indices of the points, in the order of the clusters. necessary
+     * that we have random access to the points
+     */
+    private final int[] indices;
+
+    /** scratch storage of the same size as {@link #indices} */
+    private final int[] scratch;
+
+    /**
+     * keys used for sorting, each holding the sort key of a point in the
+     * upper and its position in the cluster in the lower half
+     */
+    private final long[] keys;
+
+    /** number of dimensions of the points */
+    private final short numDimensions;
+
+    /** The offset is the first index of the storage that is used. */
+    private final int offset;
+
+    /** The count is the number of points in the Cluster. */
+    private int count;
+
+    /** the corners of the block */
+    private final double[] minCorner;
+
+    private final double[] maxCorner;
+
+    /** the sum of the values of the points, for each dimension */
+    private final double[] sum;
+
+    /**
+     * @param points
+     */
+    Cluster( T points)
+    {
+      this.points= points;
+      final int size= points.size();
+      indices= new int[size];
+      for (int i= 0; i < size; i++) {
+        indices[i]= i;
+      }
+      scratch= new int[size];
+      keys= new long[size];
+      numDimensions= points.getDimensions();
+      offset= 0;
+      count= size;
+      minCorner= new double[numDimensions];
+      maxCorner= new double[numDimensions];
+      sum= new double[numDimensions];
+    }
+
+    /**
+     * Private constructor which shares value and scratch arrays for speed.
+     *
+     * @param offset
+     * @param count
+     * @param parent
+     *        the cluster to share the arrays with
+     */
+    private Cluster( int offset, int count, Cluster parent)
+    {
+      this.points= parent.points;
+      this.indices= parent.indices;
+      this.scratch= parent.scratch;
+      this.keys= parent.keys;
+      this.numDimensions= parent.numDimensions;
+      this.offset= offset;
+      this.count= count;
+      minCorner= new double[numDimensions];
+      maxCorner= new double[numDimensions];
+      sum= new double[numDimensions];
+      clear();
+    }
+
+    /**
+     * Gets the number of points in this block.
+     */
+    public final int getPointCnt()
+    {
+      return this.count;
+    }
+
+    /**
+     * figures out which side (dimension) of the block is longest.
+     *
+     * @return the number of dimension with the longest side.
+     */
+    private short longestSideIndex()
+    {
+      double maxLen= maxCorner[0] - minCorner[0];
+      short dimension= 0;
+      for (short dim= 1; dim < numDimensions; dim++) {
+        double diff= maxCorner[dim] - minCorner[dim];
+        if (diff > maxLen) {
+          maxLen= diff;
+          dimension= dim;
+        }
+      }
+      return dimension;
+    }
+
+    /**
+     * Gets the length of the longest side of the block.
+     */
+    private double longestSideLength()
+    {
+      short dim= longestSideIndex();
+      return maxCorner[dim] - minCorner[dim];
+    }
+
+    /**
+     * Shrinks a block so that it just barely contains its points; that is, its
+     * minimum and maximum coordinates are chosen according to the minimum and
+     * maximum coordinates of its points. Also sums up the points.
+     */
+    public void shrink()
+    {
+      clear();
+      for (int i= offset; i < offset + count; i++) {
+        add( indices[i]);
+      }
+    }
+
+    /**
+     * Empties the bounds and the sums of this block.
+     */
+    private void clear()
+    {
+      Arrays.fill( minCorner, Double.POSITIVE_INFINITY);
+      Arrays.fill( maxCorner, Double.NEGATIVE_INFINITY);
+      Arrays.fill( sum, 0.0);
+    }
+
+    /**
+     * Adds a point to the bounds and the sums of this block.
+     *
+     * @param point
+     *        the index of the point
+     */
+    private void add( int point)
+    {
+      for (short dim= 0; dim < numDimensions; dim++) {
+        final double value= points.getValue( point, dim);
+        if (value < minCorner[dim])
+          minCorner[dim]= value;
+        if (value > maxCorner[dim])
+          maxCorner[dim]= value;
+        sum[dim]+= value;
+      }
+    }
+
+    /**
+     * Partitions the points in this block into two sublists. Splitting is done
+     * along the largest side in such a way that half the contained points fall
+     * into a new cluster. Both clusters are shrunk while splitting.<br>
+     * The points are sorted by their keys combined with their position, so
+     * the primitive sort is stable and yields the same order as the
+     * comparator sort in {@link MedianCut}. Requires the block to be shrunk.
+     *
+     * @return a newly created block with the splitted off points
+     */
+    public Cluster split()
+    {
+      // partition the points into two sublists
+      final short dim= longestSideIndex();
+      final int end= offset + count;
+      final int median= (count + 1) / 2;
+      final int split= offset + median;
+      Cluster block2= new Cluster( split, count - median, this);
+      this.count= median;
+      if (minCorner[dim] == maxCorner[dim]) {
+        // all points are equal on that side: already sorted
+        this.shrink();
+        block2.shrink();
+        return block2;
+      }
+      for (int i= offset; i < end; i++) {
+        keys[i]=
+          (long) points.getSortKey( indices[i], dim) << 32 | (i - offset);
+      }
+      Arrays.sort( keys, offset, end);
+      this.clear();
+      for (int i= offset; i < end; i++) {
+        final int point= indices[offset + (int) keys[i]];
+        scratch[i]= point;
+        (i < split ? this : block2).add( point);
+      }
+      System.arraycopy( scratch, offset, indices, offset, end - offset);
+      return block2;
+    }
+
+    /**
+     * Finds a representative point for this block. Implemented to compute the
+     * arithmetic mean (average) of all points in the cluster.
+     *
+     * @param result
+     *        receives the representative point
+     * @param index
+     *        the index of the representative point in {@code result}
+     */
+    public void getRepresentativePoint( T result, int index)
+    {
+      // To find a representative point for each block, we merely compute the
+      // arithmetic mean (average) of all points in the cluster:
+      for (short dim= 0; dim < numDimensions; dim++) {
+        result.setValue( index, dim, sum[dim] / count);
+      }
+    }
+
+    /**
+     * {@inheritDoc} Compares two blocks by the length of their longest side.
+     */
+    public int compareTo( Cluster rhs)
+    {
+      return Double.compare( rhs.longestSideLength(),
+        this.longestSideLength());
+    }
+  }
+}
@@ -0,0 +1,586 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * Median cut algorithm, based on <a
+ * href="http://en.literateprograms.org/Median_cut_algorithm_(C_Plus_Plus)"
+ * >Median cut algorithm (C Plus Plus)</a>.<br>
+ * Specialized for a sequence of similar frames, like the frames of a video,
+ * with RGB pixels packed into an {@code int} as {@code 0xRRGGBB}.<br>
+ * The first frame is cut like {@link MedianCut4PackedRGB} does, keeping the
+ * tree of clusters with the dimension and the value each cluster was split
+ * at. Each following frame is partitioned along that tree. A cluster is only
+ * split anew (together with its sub-clusters), if its points no longer fall
+ * into halves of about the same size. This keeps the cost per frame low and
+ * the palette stable: the representative point of a cluster that is not
+ * split anew keeps its index in the palette.<br>
+ * If a frame has too few pixels for all indices of the palette, the indices
+ * left over are kept unused and repeat a neighboring color, so no other
+ * index changes. They are taken again by splitting the cluster with the
+ * longest side as soon as there are enough pixels.
+ *
+ * @author Martin Weber
+ */
+public class MedianCut4FrameSequence
+{
+  /** number of dimensions (color channels) of a packed pixel */
+  private static final int NUM_DIMENSIONS= 3;
+
+  /** number of distinct values of a channel */
+  private static final int NUM_VALUES= 256;
+
+  private final int desiredQuantizationLevels;
+
+  /**
+   * the difference of the number of points in both halves of a cluster
+   * relative to its number of points, above which the cluster is split anew
+   */
+  private final double maxImbalance;
+
+  /** the tree of clusters of the previous frame, or {@code null} */
+  private Node root;
+
+  /**
+   * the clusters without sub-clusters, by their index in the palette;
+   * {@code null} for an unused index
+   */
+  private List<Node> leaves= new ArrayList<Node>();
+
+  /** the palette of the previous frame */
+  private int[] palette= new int[0];
+
+  /** scratch storage of the size of a frame */
+  private int[] scratch= new int[0];
+
+  /** counters used for sorting, one for each value of a channel */
+  private final int[] histogram= new int[NUM_VALUES];
+
+  /** number of clusters split anew for the last frame */
+  private int resplitCount;
+
+  /**
+   * @param desiredQuantizationLevels
+   *        the number of representative points to determine for each frame
+   * @param maxImbalance
+   *        the difference of the number of points in both halves of a cluster
+   *        relative to its number of points, above which the cluster is split
+   *        anew, for example {@code 0.1}
+   */
+  public MedianCut4FrameSequence( int desiredQuantizationLevels,
+    double maxImbalance)
+  {
+    this.desiredQuantizationLevels= desiredQuantizationLevels;
+    this.maxImbalance= maxImbalance;
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * frame.
+   *
+   * @param pixels
+   *        the pixels of the frame, packed as {@code 0xRRGGBB}. The alpha byte
+   *        is ignored. Note that the order of the pixels is changed by this
+   *        method.
+   * @return the packed representative points ({@code 0xRRGGBB}), one for each
+   *         desired quantization level. A cluster that was not split anew
+   *         keeps the index of its representative point of the previous
+   *         frame. An unused index repeats the color of the nearest used
+   *         index below it (above it, if there is none below).
+   * @see #isUsed(int)
+   */
+  public int[] nextFrame( int[] pixels)
+  {
+    if (pixels.length == 0)
+      throw new IllegalArgumentException( "empty frame");
+    if (scratch.length < pixels.length)
+      scratch= new int[pixels.length];
+    resplitCount= 0;
+    if (root == null) {
+      root= new Node( pixels, 0, pixels.length);
+      root.shrink();
+      cut( root, desiredQuantizationLevels, null);
+    } else {
+      partition( pixels);
+      refresh( root);
+    }
+    fill();
+    // find a representative point for each block and add it to the result...
+    int[] result= new int[leaves.size()];
+    int firstUsed= -1;
+    for (int i= 0; i < result.length; i++) {
+      final Node leaf= leaves.get( i);
+      if (leaf != null) {
+        result[i]= leaf.getRepresentativePoint();
+        if (firstUsed < 0)
+          firstUsed= i;
+      } else if (firstUsed >= 0) {
+        result[i]= result[i - 1];
+      }
+    }
+    for (int i= 0; i < firstUsed; i++) {
+      result[i]= result[firstUsed];
+    }
+    palette= result.clone();
+    return result;
+  }
+
+  /**
+   * Gets whether the specified index of the palette of the last frame stands
+   * for a cluster. An unused index repeats a neighboring color and no pixel
+   * falls into it.
+   */
+  public boolean isUsed( int index)
+  {
+    return leaves.get( index) != null;
+  }
+
+  /**
+   * Gets the number of clusters that were split anew for the last frame,
+   * including the initial cluster of the first frame.
+   */
+  public int getResplitCount()
+  {
+    return resplitCount;
+  }
+
+  /**
+   * Forgets the tree of clusters, so the next frame is cut from scratch.
+   */
+  public void reset()
+  {
+    root= null;
+    leaves= new ArrayList<Node>();
+    palette= new int[0];
+  }
+
+  /**
+   * Partitions the points of a frame along the tree of clusters of the
+   * previous frame and gathers the bounds and sums of each cluster.
+   */
+  private void partition( int[] pixels)
+  {
+    // number the leaves in tree order, so each sub-tree gets a contiguous
+    // range of points
+    final List<Node> ordered= new ArrayList<Node>( leaves.size());
+    collectLeaves( root, ordered);
+    final int[] starts= new int[ordered.size()];
+    for (int i= 0; i < starts.length; i++) {
+      final Node leaf= ordered.get( i);
+      leaf.treeIndex= i;
+      leaf.clear();
+      leaf.count= 0;
+      leaf.points= pixels;
+    }
+    for (int i= 0; i < pixels.length; i++) {
+      final Node leaf= find( pixels[i]);
+      leaf.add( pixels[i]);
+      leaf.count++;
+    }
+    for (int i= 0, start= 0; i < starts.length; i++) {
+      starts[i]= start;
+      start+= ordered.get( i).count;
+    }
+    for (int i= 0; i < pixels.length; i++) {
+      final int pixel= pixels[i];
+      scratch[starts[find( pixel).treeIndex]++]= pixel;
+    }
+    System.arraycopy( scratch, 0, pixels, 0, pixels.length);
+    for (int i= 0, start= 0; i < starts.length; i++) {
+      final Node leaf= ordered.get( i);
+      leaf.offset= start;
+      start+= leaf.count;
+    }
+    root.gather( pixels);
+  }
+
+  /**
+   * Gets the leaf of the tree of clusters the specified point falls into.
+   */
+  private Node find( int pixel)
+  {
+    Node node= root;
+    while (node.lower != null) {
+      final int value=
+        MedianCut4PackedRGB.getValue( pixel, node.splitDimension);
+      node= value <= node.splitValue ? node.lower : node.upper;
+    }
+    return node;
+  }
+
+  /**
+   * Adds the leaves of the specified tree to the list, from the lowest to the
+   * highest.
+   */
+  private static void collectLeaves( Node node, List<Node> result)
+  {
+    if (node.lower == null) {
+      result.add( node);
+    } else {
+      collectLeaves( node.lower, result);
+      collectLeaves( node.upper, result);
+    }
+  }
+
+  /**
+   * Splits the specified cluster anew, if its points no longer fall into
+   * halves of about the same size, or checks its sub-clusters otherwise.
+   */
+  private void refresh( Node node)
+  {
+    if (node.lower == null)
+      return;
+    final int lowerCnt= node.lower.count;
+    final int upperCnt= node.upper.count;
+    if (lowerCnt == 0 || upperCnt == 0
+      || Math.abs( lowerCnt - upperCnt) > Math.max( 1, maxImbalance
+        * node.count)) {
+      List<Node> subLeaves= new ArrayList<Node>();
+      collectLeaves( node, subLeaves);
+      int[] slots= new int[subLeaves.size()];
+      for (int i= 0; i < slots.length; i++) {
+        slots[i]= subLeaves.get( i).slot;
+      }
+      Arrays.sort( slots);
+      node.lower= node.upper= null;
+      cut( node, slots.length, slots);
+    } else {
+      refresh( node.lower);
+      refresh( node.upper);
+    }
+  }
+
+  /**
+   * Splits clusters, the one with the longest side first, to take the unused
+   * indices of the palette, as long as there are clusters of more than one
+   * point. The half of a cluster nearer to the color of its index in the
+   * previous frame keeps the index.
+   */
+  private void fill()
+  {
+    PriorityQueue<Node> blockQueue= null;
+    for (int slot= 0; slot < leaves.size(); slot++) {
+      if (leaves.get( slot) != null)
+        continue;
+      if (blockQueue == null) {
+        blockQueue= new PriorityQueue<Node>();
+        for (Node leaf : leaves) {
+          if (leaf != null)
+            blockQueue.offer( leaf);
+        }
+      }
+      if (blockQueue.peek().count <= 1)
+        break;
+      Node longestBlock= blockQueue.poll();
+      longestBlock.split( scratch, histogram);
+      resplitCount++;
+      Node keeper= longestBlock.lower;
+      Node other= longestBlock.upper;
+      if (longestBlock.slot < palette.length) {
+        final int color= palette[longestBlock.slot];
+        if (distance( other.getRepresentativePoint(), color) < distance(
+          keeper.getRepresentativePoint(), color)) {
+          keeper= longestBlock.upper;
+          other= longestBlock.lower;
+        }
+      }
+      keeper.slot= longestBlock.slot;
+      leaves.set( keeper.slot, keeper);
+      other.slot= slot;
+      leaves.set( slot, other);
+      blockQueue.offer( keeper);
+      blockQueue.offer( other);
+    }
+  }
+
+  /**
+   * Cuts the specified shrunk cluster into the specified number of clusters
+   * and assigns the resulting leaves their index in the palette. Indices left
+   * over for lack of points are marked unused.
+   *
+   * @param slots
+   *        the indices in the palette for the leaves, ascending, or
+   *        {@code null} to start a new palette of the specified size
+   */
+  private void cut( Node block1, int desiredQuantizationLevels, int[] slots)
+  {
+    resplitCount++;
+    /**
+     * a queue with the Cluster having the longest side to have maximum priority
+     */
+    PriorityQueue<Node> blockQueue= new PriorityQueue<Node>();
+    blockQueue.offer( block1);
+    // While the number of clusters is less than desired number...
+    while (blockQueue.size() < desiredQuantizationLevels
+      && blockQueue.peek().count > 1) {
+
+      // Find the largest side length of any side of any cluster..
+      Node longestBlock= blockQueue.poll();
+
+      // split longestBlock into two blocks
+      longestBlock.split( scratch, histogram);
+
+      blockQueue.offer( longestBlock.lower);
+      blockQueue.offer( longestBlock.upper);
+    }
+    if (slots == null) {
+      leaves= new ArrayList<Node>( desiredQuantizationLevels);
+      while ( !blockQueue.isEmpty()) {
+        Node leaf= blockQueue.poll();
+        leaf.slot= leaves.size();
+        leaves.add( leaf);
+      }
+      while (leaves.size() < desiredQuantizationLevels) {
+        leaves.add( null);
+      }
+    } else {
+      int i= 0;
+      for (; !blockQueue.isEmpty(); i++) {
+        Node leaf= blockQueue.poll();
+        leaf.slot= slots[i];
+        leaves.set( slots[i], leaf);
+      }
+      // fewer points than indices: keep the other indices unused
+      for (; i < slots.length; i++) {
+        leaves.set( slots[i], null);
+      }
+    }
+  }
+
+  /**
+   * Gets the squared euclidean distance of two packed colors.
+   */
+  private static int distance( int color1, int color2)
+  {
+    int result= 0;
+    for (int shift= 0; shift <= 16; shift+= 8) {
+      final int diff= (color1 >> shift & 0xFF) - (color2 >> shift & 0xFF);
+      result+= diff * diff;
+    }
+    return result;
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * A cluster containing a number of packed pixels in RGB space, together
+   * with the clusters it was split into. For efficiency reasons, the cluster
+   * is implemented as a rectangular block (a cuboidal).
+   *
+   * @author Martin Weber
+   */
+  private static class Node implements Comparable<Node>
+  {
+    /** value storage. necessary that we have random access to the points */
+    private int[] points;
+
+    /** The offset is the first index of the storage that is used. */
+    private int offset;
+
+    /** The count is the number of points in the Cluster. */
+    private int count;
+
+    /** the corners of the block, each channel as signed value. */
+    private final int[] minCorner= new int[NUM_DIMENSIONS];
+
+    private final int[] maxCorner= new int[NUM_DIMENSIONS];
+
+    /** the sum of the values of the points, for each channel */
+    private final long[] sum= new long[NUM_DIMENSIONS];
+
+    /** the two blocks this block was split into, or {@code null} */
+    private Node lower;
+
+    private Node upper;
+
+    /** the channel this block was split along */
+    private int splitDimension;
+
+    /** the greatest value of the lower block along the split channel */
+    private int splitValue;
+
+    /** the index of the representative point of a leaf in the palette */
+    private int slot;
+
+    /** the index of a leaf in tree order */
+    private int treeIndex;
+
+    /**
+     * @param points
+     * @param offset
+     * @param count
+     */
+    Node( int[] points, int offset, int count)
+    {
+      this.points= points;
+      this.offset= offset;
+      this.count= count;
+      clear();
+    }
+
+    /**
+     * figures out which side (dimension) of the block is longest.
+     *
+     * @return the number of dimension with the longest side.
+     */
+    private int longestSideIndex()
+    {
+      int maxLen= maxCorner[0] - minCorner[0];
+      int dimension= 0;
+      for (int dim= 1; dim < NUM_DIMENSIONS; dim++) {
+        int diff= maxCorner[dim] - minCorner[dim];
+        if (diff > maxLen) {
+          maxLen= diff;
+          dimension= dim;
+        }
+      }
+      return dimension;
+    }
+
+    /**
+     * Gets the length of the longest side of the block.
+     */
+    private int longestSideLength()
+    {
+      int dim= longestSideIndex();
+      return maxCorner[dim] - minCorner[dim];
+    }
+
+    /**
+     * Shrinks a block so that it just barely contains its points and sums up
+     * the points.
+     */
+    void shrink()
+    {
+      clear();
+      for (int i= offset, end= offset + count; i < end; i++) {
+        add( points[i]);
+      }
+    }
+
+    /**
+     * Empties the bounds and the sums of this block.
+     */
+    void clear()
+    {
+      for (int dim= 0; dim < NUM_DIMENSIONS; dim++) {
+        minCorner[dim]= Integer.MAX_VALUE;
+        maxCorner[dim]= Integer.MIN_VALUE;
+        sum[dim]= 0;
+      }
+    }
+
+    /**
+     * Adds a point to the bounds and the sums of this block.
+     */
+    void add( int pixel)
+    {
+      for (int dim= 0; dim < NUM_DIMENSIONS; dim++) {
+        final int value= MedianCut4PackedRGB.getValue( pixel, dim);
+        if (value < minCorner[dim])
+          minCorner[dim]= value;
+        if (value > maxCorner[dim])
+          maxCorner[dim]= value;
+        sum[dim]+= value;
+      }
+    }
+
+    /**
+     * Computes the range, bounds and sums of the inner blocks of the tree from
+     * those of the leaves.
+     */
+    void gather( int[] points)
+    {
+      if (lower == null)
+        return;
+      lower.gather( points);
+      upper.gather( points);
+      this.points= points;
+      offset= lower.offset;
+      count= lower.count + upper.count;
+      for (int dim= 0; dim < NUM_DIMENSIONS; dim++) {
+        minCorner[dim]= Math.min( lower.minCorner[dim], upper.minCorner[dim]);
+        maxCorner[dim]= Math.max( lower.maxCorner[dim], upper.maxCorner[dim]);
+        sum[dim]= lower.sum[dim] + upper.sum[dim];
+      }
+    }
+
+    /**
+     * Partitions the points in this block into two sublists by a stable
+     * counting sort along the largest side, in such a way that half the
+     * contained points fall into each new cluster. Remembers where the block
+     * was split. Requires the block to be shrunk.
+     */
+    void split( int[] scratch, int[] histogram)
+    {
+      final int dim= longestSideIndex();
+      final int shift= 16 - 8 * dim;
+      final int min= minCorner[dim] - Byte.MIN_VALUE;
+      final int max= maxCorner[dim] - Byte.MIN_VALUE;
+      final int end= offset + count;
+      final int median= (count + 1) / 2;
+      final int split= offset + median;
+      lower= new Node( points, offset, median);
+      upper= new Node( points, split, count - median);
+      if (min == max) {
+        // all points are equal on that side: already sorted
+        for (int i= offset; i < end; i++) {
+          (i < split ? lower : upper).add( points[i]);
+        }
+      } else {
+        for (int v= min; v <= max; v++) {
+          histogram[v]= 0;
+        }
+        for (int i= offset; i < end; i++) {
+          histogram[((byte) (points[i] >> shift)) - Byte.MIN_VALUE]++;
+        }
+        // turn counts into start indices..
+        for (int v= min, start= offset; v <= max; v++) {
+          final int cnt= histogram[v];
+          histogram[v]= start;
+          start+= cnt;
+        }
+        for (int i= offset; i < end; i++) {
+          final int pixel= points[i];
+          final int idx=
+            histogram[((byte) (pixel >> shift)) - Byte.MIN_VALUE]++;
+          scratch[idx]= pixel;
+          (idx < split ? lower : upper).add( pixel);
+        }
+        System.arraycopy( scratch, offset, points, offset, count);
+      }
+      splitDimension= dim;
+      splitValue= MedianCut4PackedRGB.getValue( points[split - 1], dim);
+    }
+
+    /**
+     * Finds a representative point for this block. Implemented to compute the
+     * arithmetic mean (average) of all points in the cluster.
+     *
+     * @return a representative point for this block, packed as
+     *         {@code 0xRRGGBB}
+     */
+    int getRepresentativePoint()
+    {
+      return (((byte) (sum[0] / count)) & 0xFF) << 16
+        | (((byte) (sum[1] / count)) & 0xFF) << 8
+        | (((byte) (sum[2] / count)) & 0xFF);
+    }
+
+    /**
+     * {@inheritDoc} Compares two blocks by the length of their longest side.
+     */
+    public int compareTo( Node rhs)
+    {
+      return rhs.longestSideLength() - this.longestSideLength();
+    }
+  }
+}
@@ -0,0 +1,422 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+
+/**
+ * Median cut algorithm, based on <a
+ * href="http://en.literateprograms.org/Median_cut_algorithm_(C_Plus_Plus)"
+ * >Median cut algorithm (C Plus Plus)</a>.<br>
+ * Specialized for raw RGB files with the channels of the pixels interleaved
+ * as <code>R, G, B, R, G, B, ...</code>, too large to be held in the heap. The
+ * file is memory-mapped and the pixels are partitioned in place, so the heap
+ * used does not depend on the number of pixels and the I/O is left to the
+ * page cache.<br>
+ * Computes the representative points like {@link MedianCut4PackedRGB} does,
+ * except that the points are partitioned around the median instead of being
+ * sorted. If several points share the median value on the side split, these
+ * are partitioned along the other sides, so other points than with
+ * {@code MedianCut4PackedRGB} may fall into each of the two clusters.
+ *
+ * @author Martin Weber
+ */
+public class MedianCut4MappedRGB
+{
+  /** number of dimensions (color channels) of a pixel */
+  private static final int NUM_DIMENSIONS= 3;
+
+  /** number of distinct values of a channel */
+  private static final int NUM_VALUES= 256;
+
+  /**
+   * number of bits of the index of a pixel within a mapped segment. A
+   * {@link MappedByteBuffer} holds less than 2 GB, so a file is mapped in
+   * several segments.
+   */
+  private static final int SEGMENT_BITS= 28;
+
+  /**
+   */
+  public MedianCut4MappedRGB()
+  {}
+
+  /**
+   * Determines the most representative values on the range of the pixels
+   * stored in the specified raw RGB file for the desired number of
+   * quantization level.
+   *
+   * @param file
+   *        the file holding the pixels with their channels interleaved as
+   *        <code>R, G, B, R, G, B, ...</code>. Note that the order of the
+   *        pixels in the file is changed by this method.
+   * @return the packed representative points ({@code 0xRRGGBB}), one for each
+   *         desired quantization level.
+   * @throws IOException
+   *         if the file cannot be mapped
+   */
+  public int[] medianCut( Path file, int desiredQuantizationLevels)
+    throws IOException
+  {
+    FileChannel channel=
+      FileChannel.open( file, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    try {
+      return medianCut( channel, desiredQuantizationLevels);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Determines the most representative values on the range of the pixels
+   * stored in the file of the specified channel for the desired number of
+   * quantization level.
+   *
+   * @param channel
+   *        the channel of the file holding the pixels with their channels
+   *        interleaved as <code>R, G, B, R, G, B, ...</code>, opened for
+   *        reading and writing. Note that the order of the pixels in the file
+   *        is changed by this method.
+   * @return the packed representative points ({@code 0xRRGGBB}), one for each
+   *         desired quantization level.
+   * @throws IOException
+   *         if the file cannot be mapped
+   */
+  public int[] medianCut( FileChannel channel, int desiredQuantizationLevels)
+    throws IOException
+  {
+    final long size= channel.size();
+    if (size % NUM_DIMENSIONS != 0)
+      throw new IllegalArgumentException( "file size not a multiple of "
+        + NUM_DIMENSIONS);
+    if (size == 0)
+      return new int[0];
+    MappedPixels pixels= new MappedPixels( channel, size / NUM_DIMENSIONS);
+
+    /**
+     * a queue with the Cluster having the longest side to have maximum priority
+     */
+    PriorityQueue<Cluster> blockQueue= new PriorityQueue<Cluster>();
+    // create initial block
+    Cluster block1= new Cluster( pixels, 0, pixels.count);
+    block1.shrink();
+    blockQueue.offer( block1);
+    // While the number of clusters is less than desired number...
+    while (blockQueue.size() < desiredQuantizationLevels
+      && blockQueue.peek().getPointCnt() > 1) {
+
+      // Find the largest side length of any side of any cluster..
+      Cluster longestBlock= blockQueue.poll();
+
+      // split off block2 from longestBlock, both get shrunk while splitting
+      Cluster block2= longestBlock.split();
+
+      blockQueue.offer( longestBlock);
+      blockQueue.offer( block2);
+    }
+    // find a representative point for each block and add it to the result...
+    int[] result= new int[blockQueue.size()];
+    for (int i= 0; i < result.length; i++) {
+      Cluster block= blockQueue.poll();
+      result[i]= block.getRepresentativePoint();
+    }
+    return result;
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * The pixels of a memory-mapped raw RGB file, accessed by a {@code long}
+   * index.
+   *
+   * @author Martin Weber
+   */
+  private static class MappedPixels
+  {
+    /** the mapped segments, each holding up to 2^SEGMENT_BITS pixels */
+    private final MappedByteBuffer[] segments;
+
+    /** the number of pixels */
+    private final long count;
+
+    MappedPixels( FileChannel channel, long count) throws IOException
+    {
+      this.count= count;
+      final long segmentPixels= 1L << SEGMENT_BITS;
+      final long numSegments= (count + segmentPixels - 1) >>> SEGMENT_BITS;
+      segments= new MappedByteBuffer[(int) numSegments];
+      for (int i= 0; i < segments.length; i++) {
+        final long first= (long) i << SEGMENT_BITS;
+        final long pixels= Math.min( segmentPixels, count - first);
+        segments[i]=
+          channel.map( FileChannel.MapMode.READ_WRITE, first * NUM_DIMENSIONS,
+            pixels * NUM_DIMENSIONS);
+      }
+    }
+
+    /**
+     * Gets the pixel at the specified index, packed as {@code 0xRRGGBB}.
+     */
+    int get( long index)
+    {
+      final MappedByteBuffer segment=
+        segments[(int) (index >>> SEGMENT_BITS)];
+      final int pos=
+        (int) (index & (1L << SEGMENT_BITS) - 1) * NUM_DIMENSIONS;
+      return (segment.get( pos) & 0xFF) << 16
+        | (segment.get( pos + 1) & 0xFF) << 8 | (segment.get( pos + 2) & 0xFF);
+    }
+
+    /**
+     * Sets the pixel at the specified index.
+     *
+     * @param pixel
+     *        the pixel, packed as {@code 0xRRGGBB}
+     */
+    void set( long index, int pixel)
+    {
+      final MappedByteBuffer segment=
+        segments[(int) (index >>> SEGMENT_BITS)];
+      final int pos=
+        (int) (index & (1L << SEGMENT_BITS) - 1) * NUM_DIMENSIONS;
+      segment.put( pos, (byte) (pixel >> 16));
+      segment.put( pos + 1, (byte) (pixel >> 8));
+      segment.put( pos + 2, (byte) pixel);
+    }
+  }
+
+  /**
+   * A cluster containing a range of the mapped pixels in RGB space. For
+   * efficiency reasons, the cluster is implemented as a rectangular block (a
+   * cuboidal).
+   *
+   * @author Martin Weber
+   */
+  private static class Cluster implements Comparable<Cluster>
+  {
+    /** value storage. necessary that we have random access to the points */
+    private final MappedPixels points;
+
+    /** The offset is the first index of the storage that is used. */
+    private final long offset;
+
+    /** The count is the number of points in the Cluster. */
+    private long count;
+
+    /** the corners of the block, each channel as signed value. */
+    private final int[] minCorner= new int[NUM_DIMENSIONS];
+
+    private final int[] maxCorner= new int[NUM_DIMENSIONS];
+
+    /** the sum of the values of the points, for each channel */
+    private final long[] sum= new long[NUM_DIMENSIONS];
+
+    /**
+     * the number of points having each value, for each channel, indexed by
+     * the unsigned value
+     */
+    private final long[][] histogram= new long[NUM_DIMENSIONS][NUM_VALUES];
+
+    /**
+     * @param points
+     * @param offset
+     * @param count
+     */
+    Cluster( MappedPixels points, long offset, long count)
+    {
+      this.points= points;
+      this.offset= offset;
+      this.count= count;
+    }
+
+    /**
+     * Gets the number of points in this block.
+     */
+    public final long getPointCnt()
+    {
+      return this.count;
+    }
+
+    /**
+     * figures out which side (dimension) of the block is longest.
+     *
+     * @return the number of dimension with the longest side.
+     */
+    private int longestSideIndex()
+    {
+      int maxLen= maxCorner[0] - minCorner[0];
+      int dimension= 0;
+      for (int dim= 1; dim < NUM_DIMENSIONS; dim++) {
+        int diff= maxCorner[dim] - minCorner[dim];
+        if (diff > maxLen) {
+          maxLen= diff;
+          dimension= dim;
+        }
+      }
+      return dimension;
+    }
+
+    /**
+     * Gets the length of the longest side of the block.
+     */
+    private int longestSideLength()
+    {
+      int dim= longestSideIndex();
+      return maxCorner[dim] - minCorner[dim];
+    }
+
+    /**
+     * Shrinks a block so that it just barely contains its points; that is, its
+     * minimum and maximum coordinates are chosen according to the minimum and
+     * maximum coordinates of its points. Also sums up the points and counts
+     * the values of each channel.
+     */
+    public void shrink()
+    {
+      final long[] red= histogram[0], green= histogram[1], blue= histogram[2];
+      for (int dim= 0; dim < NUM_DIMENSIONS; dim++) {
+        Arrays.fill( histogram[dim], 0);
+      }
+      final long end= offset + count;
+      for (long i= offset; i < end; i++) {
+        final int pixel= points.get( i);
+        red[pixel >> 16]++;
+        green[pixel >> 8 & 0xFF]++;
+        blue[pixel & 0xFF]++;
+      }
+      for (int dim= 0; dim < NUM_DIMENSIONS; dim++) {
+        final long[] counts= histogram[dim];
+        minCorner[dim]= Integer.MAX_VALUE;
+        maxCorner[dim]= Integer.MIN_VALUE;
+        sum[dim]= 0;
+        for (int v= 0; v < NUM_VALUES; v++) {
+          if (counts[v] != 0) {
+            // channels are signed values, like in DataPoint3Byte
+            final int value= (byte) v;
+            minCorner[dim]= Math.min( minCorner[dim], value);
+            maxCorner[dim]= Math.max( maxCorner[dim], value);
+            sum[dim]+= value * counts[v];
+          }
+        }
+      }
+    }
+
+    /**
+     * Partitions the points in this block into two sublists. Splitting is done
+     * along the largest side in such a way that half the contained points
+     * fall into a new cluster. Both clusters are shrunk afterwards.<br>
+     * The points are partitioned in place into those below, at and above the
+     * median value. Requires the block to be shrunk.
+     *
+     * @return a newly created block with the splitted off points
+     */
+    public Cluster split()
+    {
+      final long median= (count + 1) / 2;
+      final long cut= offset + median;
+      // partition along the longest side. If points at the median value fall
+      // on both sides of the cut, partition these along the other sides, so
+      // that the clusters stay compact
+      long from= offset;
+      long to= offset + count;
+      int dim= longestSideIndex();
+      long[] counts= histogram[dim];
+      for (int round= 0; round < NUM_DIMENSIONS; round++) {
+        if (round > 0) {
+          dim= (dim + 1) % NUM_DIMENSIONS;
+          counts= new long[NUM_VALUES];
+          for (long i= from; i < to; i++) {
+            counts[points.get( i) >> (16 - 8 * dim) & 0xFF]++;
+          }
+        }
+        // find the median value, in signed order
+        int medianValue= Byte.MIN_VALUE;
+        for (long cumulated= 0;; medianValue++) {
+          cumulated+= counts[medianValue & 0xFF];
+          if (from + cumulated >= cut)
+            break;
+        }
+        final long[] range= partition( from, to, dim, medianValue);
+        if (range[0] == cut || range[1] == cut)
+          break;
+        from= range[0];
+        to= range[1];
+      }
+      Cluster block2= new Cluster( points, cut, count - median);
+      this.count= median;
+      this.shrink();
+      block2.shrink();
+      return block2;
+    }
+
+    /**
+     * Partitions the points in the specified range in place into those below,
+     * at and above the specified value on the specified side.
+     *
+     * @param from
+     *        the index of the first point
+     * @param to
+     *        the index after the last point
+     * @return the range of indices of the points at the value
+     */
+    private long[] partition( long from, long to, int dim, int value)
+    {
+      final int shift= 16 - 8 * dim;
+      long lower= from;
+      long upper= to;
+      for (long i= from; i < upper;) {
+        final int pixel= points.get( i);
+        final int v= (byte) (pixel >> shift);
+        if (v < value) {
+          if (i != lower) {
+            points.set( i, points.get( lower));
+            points.set( lower, pixel);
+          }
+          lower++;
+          i++;
+        } else if (v > value) {
+          upper--;
+          points.set( i, points.get( upper));
+          points.set( upper, pixel);
+        } else {
+          i++;
+        }
+      }
+      return new long[] { lower, upper };
+    }
+
+    /**
+     * Finds a representative point for this block. Implemented to compute the
+     * arithmetic mean (average) of all points in the cluster.
+     *
+     * @return a representative point for this block, packed as
+     *         {@code 0xRRGGBB}
+     */
+    public int getRepresentativePoint()
+    {
+      // To find a representative point for each block, we merely compute the
+      // arithmetic mean (average) of all points in the cluster:
+      return (((byte) (sum[0] / count)) & 0xFF) << 16
+        | (((byte) (sum[1] / count)) & 0xFF) << 8
+        | (((byte) (sum[2] / count)) & 0xFF);
+    }
+
+    /**
+     * {@inheritDoc} Compares two blocks by the length of their longest side.
+     */
+    public int compareTo( Cluster rhs)
+    {
+      return rhs.longestSideLength() - this.longestSideLength();
+    }
+  }
+}
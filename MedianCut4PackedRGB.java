@@ -0,0 +1,514 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.PriorityQueue;
+
+
+/**
+ * Median cut algorithm, based on <a
+ * href="http://en.literateprograms.org/Median_cut_algorithm_(C_Plus_Plus)"
+ * >Median cut algorithm (C Plus Plus)</a>.<br>
+ * Specialized for RGB pixels packed into an {@code int} as {@code 0xRRGGBB}.
+ * Operates on the pixel array itself instead of one {@link DataPoint3Byte}
+ * per pixel, but computes the same representative points as
+ * {@link MedianCut} does for {@code DataPoint3Byte}s holding
+ * <code>{R, G, B}</code>.
+ *
+ * @author Martin Weber
+ */
+public class MedianCut4PackedRGB
+{
+  /** number of dimensions (color channels) of a packed pixel */
+  private static final int NUM_DIMENSIONS= 3;
+
+  /** number of distinct values of a channel */
+  private static final int NUM_VALUES= 256;
+
+  /**
+   */
+  public MedianCut4PackedRGB()
+  {}
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}. The alpha byte is ignored.
+   *        Note that the order of the pixels is changed by this method.
+   * @return the packed representative points ({@code 0xRRGGBB}), one for each
+   *         desired quantization level.
+   */
+  public int[] medianCut( int[] pixels, int desiredQuantizationLevels)
+  {
+    return medianCut0( pixels, null, desiredQuantizationLevels, null);
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level and refines them
+   * by k-means.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}. The alpha byte is ignored.
+   *        Note that the order of the pixels is changed by this method.
+   * @param refinement
+   *        the refinement to run on the representative points
+   * @return the packed refined points ({@code 0xRRGGBB}), one for each
+   *         desired quantization level.
+   */
+  public int[] medianCut( int[] pixels, int desiredQuantizationLevels,
+    KMeansRefinement refinement)
+  {
+    final int[] palette= medianCut( pixels, desiredQuantizationLevels);
+    return refinement.refine( pixels, palette).getPalette();
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level, using the
+   * specified scratch storage instead of allocating it.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}. The alpha byte is ignored.
+   *        Note that the order of the pixels is changed by this method.
+   * @param scratch
+   *        scratch storage of at least the length of {@code pixels}
+   * @return the packed representative points ({@code 0xRRGGBB}), one for each
+   *         desired quantization level.
+   */
+  int[] medianCut( int[] pixels, int desiredQuantizationLevels, int[] scratch)
+  {
+    return medianCut0( pixels, null, desiredQuantizationLevels, scratch);
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * weighted input data for the desired number of quantization level. Each
+   * color counts as often as its weight says, so the cost depends on the
+   * number of distinct colors rather than on the number of pixels.
+   *
+   * @param colors
+   *        the distinct colors, packed as {@code 0xRRGGBB}. The alpha byte is
+   *        ignored. Note that the order of the colors is changed by this
+   *        method.
+   * @param weights
+   *        the weight (number of occurrences) of the color at the same index.
+   *        Note that the order of the weights is changed along with the
+   *        colors.
+   * @return the packed representative points ({@code 0xRRGGBB}), one for each
+   *         desired quantization level.
+   */
+  public int[] medianCut( int[] colors, long[] weights,
+    int desiredQuantizationLevels)
+  {
+    if (weights.length != colors.length)
+      throw new IllegalArgumentException( "weights.length != colors.length");
+    return medianCut0( colors, weights, desiredQuantizationLevels, null);
+  }
+
+  /**
+   * Determines the most representative values on the range of the colors
+   * collected in the specified histogram for the desired number of
+   * quantization level.
+   *
+   * @return the packed representative points ({@code 0xRRGGBB}), one for each
+   *         desired quantization level.
+   * @see #medianCut(int[], long[], int)
+   */
+  public int[] medianCut( ColorHistogram histogram,
+    int desiredQuantizationLevels)
+  {
+    return medianCut0( histogram.getColors(), histogram.getCounts(),
+      desiredQuantizationLevels, null);
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level.
+   *
+   * @param interleaved
+   *        the pixels with their channels interleaved as <code>R, G, B, R, G,
+   *        B, ...</code>
+   * @return the packed representative points ({@code 0xRRGGBB}), one for each
+   *         desired quantization level.
+   */
+  public int[] medianCut( byte[] interleaved, int desiredQuantizationLevels)
+  {
+    if (interleaved.length % NUM_DIMENSIONS != 0)
+      throw new IllegalArgumentException(
+        "length not a multiple of " + NUM_DIMENSIONS);
+    int[] pixels= new int[interleaved.length / NUM_DIMENSIONS];
+    for (int i= 0, j= 0; i < pixels.length; i++, j+= NUM_DIMENSIONS) {
+      pixels[i]=
+        (interleaved[j] & 0xFF) << 16 | (interleaved[j + 1] & 0xFF) << 8
+          | (interleaved[j + 2] & 0xFF);
+    }
+    return medianCut( pixels, desiredQuantizationLevels);
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level.
+   *
+   * @param weights
+   *        the weights of the pixels or {@code null} if each pixel has a
+   *        weight of one
+   * @param scratch
+   *        scratch storage of at least the length of {@code pixels} or
+   *        {@code null} to allocate it
+   */
+  private int[] medianCut0( int[] pixels, long[] weights,
+    int desiredQuantizationLevels, int[] scratch)
+  {
+    if (pixels.length == 0)
+      return new int[0];
+    /**
+     * a queue with the Cluster having the longest side to have maximum priority
+     */
+    PriorityQueue<Cluster> blockQueue= new PriorityQueue<Cluster>();
+    // create initial block
+    Cluster block1= new Cluster( pixels, weights, scratch);
+    block1.shrink();
+    blockQueue.offer( block1);
+    // While the number of clusters is less than desired number...
+    while (blockQueue.size() < desiredQuantizationLevels
+      && blockQueue.peek().getPointCnt() > 1) {
+
+      // Find the largest side length of any side of any cluster..
+      Cluster longestBlock= blockQueue.poll();
+
+      // split off block2 from longestBlock, both get shrunk while splitting
+      Cluster block2= longestBlock.split();
+
+      blockQueue.offer( longestBlock);
+      blockQueue.offer( block2);
+    }
+    // find a representative point for each block and add it to the result...
+    int[] result= new int[blockQueue.size()];
+    for (int i= 0; i < result.length; i++) {
+      Cluster block= blockQueue.poll();
+      result[i]= block.getRepresentativePoint();
+    }
+    return result;
+  }
+
+  /**
+   * Gets the value of the specified channel of a packed pixel. Like
+   * {@link DataPoint3Byte}, the value is interpreted as a signed byte.
+   *
+   * @param dimension
+   *        the channel, 0 for red, 1 for green and 2 for blue
+   */
+  static int getValue( int pixel, int dimension)
+  {
+    return (byte) (pixel >> (16 - 8 * dimension));
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * A cluster containing a number of packed pixels in RGB space. For
+   * efficiency reasons, the cluster is implemented as a rectangular block (a
+   * cuboidal).
+   *
+   * @author Martin Weber
+   */
+  private static class Cluster implements Comparable<Cluster>
+  {
+    /** value storage. necessary that we have random access to the points */
+    private final int[] points;
+
+    /** weight of each point or {@code null} if all weigh one */
+    private final long[] weights;
+
+    /** scratch storage of at least the size of {@link #points} */
+    private final int[] scratch;
+
+    /** scratch storage of the same size as {@link #weights} */
+    private final long[] scratchWeights;
+
+    /** counters used for sorting, one for each value of a channel */
+    private final int[] histogram;
+
+    /** The offset is the first index of the storage that is used. */
+    private final int offset;
+
+    /** The count is the number of points in the Cluster. */
+    private int count;
+
+    /** the corners of the block, each channel as signed value. */
+    private final int[] minCorner= new int[NUM_DIMENSIONS];
+
+    private final int[] maxCorner= new int[NUM_DIMENSIONS];
+
+    /** the (weighted) sum of the values of the points, for each channel */
+    private final long[] sum= new long[NUM_DIMENSIONS];
+
+    /** the total weight of the points */
+    private long weight;
+
+    /**
+     * @param points
+     * @param weights
+     *        the weight of each point or {@code null} if all weigh one
+     * @param scratch
+     *        scratch storage of at least the length of {@code points} or
+     *        {@code null} to allocate it
+     */
+    Cluster( int[] points, long[] weights, int[] scratch)
+    {
+      this.points= points;
+      this.weights= weights;
+      this.scratch= scratch != null ? scratch : new int[points.length];
+      this.scratchWeights= weights == null ? null : new long[weights.length];
+      this.histogram= new int[NUM_VALUES];
+      this.offset= 0;
+      this.count= points.length;
+    }
+
+    /**
+     * Private constructor which shares value and scratch arrays for speed.
+     *
+     * @param offset
+     * @param count
+     * @param parent
+     *        the cluster to share the arrays with
+     */
+    private Cluster( int offset, int count, Cluster parent)
+    {
+      this.points= parent.points;
+      this.weights= parent.weights;
+      this.scratch= parent.scratch;
+      this.scratchWeights= parent.scratchWeights;
+      this.histogram= parent.histogram;
+      this.offset= offset;
+      this.count= count;
+      clear();
+    }
+
+    /**
+     * Gets the number of points in this block.
+     */
+    public final int getPointCnt()
+    {
+      return this.count;
+    }
+
+    /**
+     * figures out which side (dimension) of the block is longest.
+     *
+     * @return the number of dimension with the longest side.
+     */
+    private int longestSideIndex()
+    {
+      int maxLen= maxCorner[0] - minCorner[0];
+      int dimension= 0;
+      for (int dim= 1; dim < NUM_DIMENSIONS; dim++) {
+        int diff= maxCorner[dim] - minCorner[dim];
+        if (diff > maxLen) {
+          maxLen= diff;
+          dimension= dim;
+        }
+      }
+      return dimension;
+    }
+
+    /**
+     * Gets the length of the longest side of the block.
+     */
+    private int longestSideLength()
+    {
+      int dim= longestSideIndex();
+      return maxCorner[dim] - minCorner[dim];
+    }
+
+    /**
+     * Shrinks a block so that it just barely contains its points; that is, its
+     * minimum and maximum coordinates are chosen according to the minimum and
+     * maximum coordinates of its points. Also sums up the points.
+     */
+    public void shrink()
+    {
+      clear();
+      addAll( offset, offset + count);
+    }
+
+    /**
+     * Empties the bounds and the sums of this block.
+     */
+    private void clear()
+    {
+      for (int dim= 0; dim < NUM_DIMENSIONS; dim++) {
+        minCorner[dim]= Integer.MAX_VALUE;
+        maxCorner[dim]= Integer.MIN_VALUE;
+        sum[dim]= 0;
+      }
+      weight= 0;
+    }
+
+    /**
+     * Adds the points in the specified range to the bounds and the sums of
+     * this block.
+     *
+     * @param from
+     *        the index of the first point
+     * @param to
+     *        the index after the last point
+     */
+    private void addAll( int from, int to)
+    {
+      if (weights == null) {
+        PixelKernels.get().addBounds( points, from, to, minCorner, maxCorner,
+          sum, 0);
+        weight+= to - from;
+        return;
+      }
+      for (int i= from; i < to; i++) {
+        add( points[i], weights[i]);
+      }
+    }
+
+    /**
+     * Adds a point to the bounds and the sums of this block.
+     */
+    private void add( int pixel, long weight)
+    {
+      for (int dim= 0; dim < NUM_DIMENSIONS; dim++) {
+        final int value= getValue( pixel, dim);
+        if (value < minCorner[dim])
+          minCorner[dim]= value;
+        if (value > maxCorner[dim])
+          maxCorner[dim]= value;
+        sum[dim]+= value * weight;
+      }
+      this.weight+= weight;
+    }
+
+    /**
+     * Partitions the points in this block into two sublists. Splitting is done
+     * along the largest side in such a way that half the contained points (or
+     * half of their weight) fall into a new cluster. Both clusters are shrunk
+     * afterwards.<br>
+     * The points are ordered by a stable counting sort on the longest side,
+     * which yields the same order as the comparator sort in {@link MedianCut}.
+     * Unless the points are weighted, the bounds and sums of the two clusters
+     * are gathered while distributing the points. Requires the block to be
+     * shrunk.
+     *
+     * @return a newly created block with the splitted off points
+     */
+    public Cluster split()
+    {
+      // partition the points into two sublists
+      final int dim= longestSideIndex();
+      final int shift= 16 - 8 * dim;
+      final int min= minCorner[dim] - Byte.MIN_VALUE;
+      final int max= maxCorner[dim] - Byte.MIN_VALUE;
+      final int end= offset + count;
+      if (min == max) {
+        // all points are equal on that side: already sorted
+        return splitSorted();
+      }
+      for (int v= min; v <= max; v++) {
+        histogram[v]= 0;
+      }
+      for (int i= offset; i < end; i++) {
+        histogram[((byte) (points[i] >> shift)) - Byte.MIN_VALUE]++;
+      }
+      // turn counts into start indices..
+      for (int v= min, start= offset; v <= max; v++) {
+        final int cnt= histogram[v];
+        histogram[v]= start;
+        start+= cnt;
+      }
+      if (weights != null) {
+        for (int i= offset; i < end; i++) {
+          final int pixel= points[i];
+          final int idx=
+            histogram[((byte) (pixel >> shift)) - Byte.MIN_VALUE]++;
+          scratch[idx]= pixel;
+          scratchWeights[idx]= weights[i];
+        }
+        System.arraycopy( scratch, offset, points, offset, count);
+        System.arraycopy( scratchWeights, offset, weights, offset, count);
+        return splitSorted();
+      }
+      final int median= (count + 1) / 2;
+      final int split= offset + median;
+      Cluster block2= new Cluster( split, count - median, this);
+      this.count= median;
+      this.clear();
+      for (int i= offset; i < end; i++) {
+        final int pixel= points[i];
+        final int idx=
+          histogram[((byte) (pixel >> shift)) - Byte.MIN_VALUE]++;
+        scratch[idx]= pixel;
+        (idx < split ? this : block2).add( pixel, 1);
+      }
+      System.arraycopy( scratch, offset, points, offset, this.count
+        + block2.count);
+      return block2;
+    }
+
+    /**
+     * Splits the already sorted points of this block at the median and
+     * shrinks both clusters.
+     *
+     * @return a newly created block with the splitted off points
+     */
+    private Cluster splitSorted()
+    {
+      int median= weights == null ? (count + 1) / 2 : weightedMedian();
+      Cluster block2= new Cluster( offset + median, count - median, this);
+      this.count= median;
+      this.shrink();
+      block2.shrink();
+      return block2;
+    }
+
+    /**
+     * Gets the number of the (sorted) points that make up at least half of
+     * the weight of this block, but leave at least one point for a second
+     * block.
+     */
+    private int weightedMedian()
+    {
+      long cumulated= 0;
+      int median= 0;
+      while (median < count - 1) {
+        cumulated+= weights[offset + median++];
+        if (2 * cumulated >= weight)
+          break;
+      }
+      return median;
+    }
+
+    /**
+     * Finds a representative point for this block. Implemented to compute the
+     * arithmetic mean (average) of all points in the cluster.
+     *
+     * @return a representative point for this block, packed as
+     *         {@code 0xRRGGBB}
+     */
+    public int getRepresentativePoint()
+    {
+      // To find a representative point for each block, we merely compute the
+      // arithmetic mean (average) of all points in the cluster:
+      return (((byte) (sum[0] / weight)) & 0xFF) << 16
+        | (((byte) (sum[1] / weight)) & 0xFF) << 8
+        | (((byte) (sum[2] / weight)) & 0xFF);
+    }
+
+    /**
+     * {@inheritDoc} Compares two blocks by the length of their longest side.
+     */
+    public int compareTo( Cluster rhs)
+    {
+      return rhs.longestSideLength() - this.longestSideLength();
+    }
+  }
+}
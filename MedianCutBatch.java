@@ -0,0 +1,164 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+
+/**
+ * Runs the median cut for many inputs concurrently, for example for the
+ * thumbnails of a batch of images. Each input is processed by a single task
+ * on the executor, so the number of threads the executor uses bounds the
+ * number of inputs processed at the same time.<br>
+ * For packed RGB pixels, each thread reuses its scratch storage from input to
+ * input. With an executor that starts a thread per task, such as one running
+ * virtual threads, that storage is allocated per input instead. A thread
+ * keeps its storage only up to a limit of pixels, by default 2<sup>20</sup>
+ * (4 MiB), as the storage stays with the thread as long as the instance is
+ * used; for larger inputs, it is allocated per input.<br>
+ * The instance may be shared by any number of threads.
+ *
+ * @author Martin Weber
+ */
+public class MedianCutBatch
+{
+  /** the default maximum size of the scratch storage kept by a thread */
+  private static final int DEFAULT_MAX_RETAINED_SCRATCH= 1 << 20;
+
+  private final Executor executor;
+
+  /** the maximum size of the scratch storage kept by a thread */
+  private final int maxRetainedScratch;
+
+  /** the scratch storage of each thread for {@link MedianCut4PackedRGB} */
+  private final ThreadLocal<int[]> scratch= new ThreadLocal<int[]>();
+
+  /**
+   * Creates a batch runner on the common {@link ForkJoinPool}, which has about
+   * as many threads as there are processors.
+   */
+  public MedianCutBatch()
+  {
+    this( ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Creates a batch runner on the specified executor.
+   *
+   * @param executor
+   *        the executor to run the tasks
+   */
+  public MedianCutBatch( Executor executor)
+  {
+    this( executor, DEFAULT_MAX_RETAINED_SCRATCH);
+  }
+
+  /**
+   * Creates a batch runner on the specified executor.
+   *
+   * @param executor
+   *        the executor to run the tasks
+   * @param maxRetainedScratch
+   *        the maximum number of pixels of the scratch storage a thread keeps
+   *        for the next input, 0 to keep none
+   */
+  public MedianCutBatch( Executor executor, int maxRetainedScratch)
+  {
+    if (maxRetainedScratch < 0)
+      throw new IllegalArgumentException( "maxRetainedScratch < 0");
+    this.executor= executor;
+    this.maxRetainedScratch= maxRetainedScratch;
+  }
+
+  /**
+   * Determines the representative points of each of the specified inputs by
+   * {@link MedianCut4PackedRGB#medianCut(int[], int)}.
+   *
+   * @param inputs
+   *        the pixels of each input, packed as {@code 0xRRGGBB}. Note that the
+   *        order of the pixels is changed.
+   * @return a future of the packed representative points of each input, in
+   *         the order of the inputs
+   */
+  public List<CompletableFuture<int[]>> medianCut(
+    Collection<int[]> inputs, final int desiredQuantizationLevels)
+  {
+    List<CompletableFuture<int[]>> result=
+      new ArrayList<CompletableFuture<int[]>>( inputs.size());
+    for (final int[] pixels : inputs) {
+      result.add( CompletableFuture.supplyAsync( new Supplier<int[]>() {
+
+        public int[] get()
+        {
+          int[] buffer= scratch.get();
+          if (buffer == null || buffer.length < pixels.length) {
+            buffer= new int[pixels.length];
+            // keep only storage up to the limit, for the next input
+            if (pixels.length <= maxRetainedScratch)
+              scratch.set( buffer);
+          }
+          return new MedianCut4PackedRGB().medianCut( pixels,
+            desiredQuantizationLevels, buffer);
+        }
+      }, executor));
+    }
+    return result;
+  }
+
+  /**
+   * Determines the representative points of each of the specified inputs by
+   * {@link MedianCut#medianCut(DataPoint[], int)}.
+   *
+   * @param medianCut
+   *        the median cut to run, shared by all tasks
+   * @param inputs
+   *        the data points of each input. Note that the order of the points
+   *        is changed.
+   * @return a future of the representative points of each input, in the
+   *         order of the inputs
+   */
+  public <DP extends DataPoint<DP>> List<CompletableFuture<List<DP>>> medianCut(
+    final MedianCut<DP> medianCut, Collection<DP[]> inputs,
+    final int desiredQuantizationLevels)
+  {
+    List<CompletableFuture<List<DP>>> result=
+      new ArrayList<CompletableFuture<List<DP>>>( inputs.size());
+    for (final DP[] points : inputs) {
+      result.add( CompletableFuture.supplyAsync( new Supplier<List<DP>>() {
+
+        public List<DP> get()
+        {
+          return medianCut.medianCut( points, desiredQuantizationLevels);
+        }
+      }, executor));
+    }
+    return result;
+  }
+
+  /**
+   * Waits for the specified futures to complete and gets their results.
+   *
+   * @return the results, in the order of the futures
+   * @throws ExecutionException
+   *         if a task failed
+   * @throws InterruptedException
+   *         if the current thread was interrupted while waiting
+   */
+  public static <T> List<T> getAll( List<CompletableFuture<T>> futures)
+    throws InterruptedException, ExecutionException
+  {
+    List<T> result= new ArrayList<T>( futures.size());
+    for (CompletableFuture<T> future : futures) {
+      result.add( future.get());
+    }
+    return result;
+  }
+}
@@ -0,0 +1,149 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+
+/**
+ * A listener that reports the phases of a median cut as JDK Flight Recorder
+ * events. Events are only created if they are enabled in the recording, so
+ * the listener is cheap when no recording is running. It holds no state, so
+ * one instance may be shared by all runs.
+ *
+ * @author Martin Weber
+ */
+public class MedianCutFlightRecorder implements MedianCutListener
+{
+
+  /*-
+   * @see MedianCutListener#initialized(int, long)
+   */
+  public void initialized( int pointCount, long nanos)
+  {
+    if (InitializedEvent.TYPE.isEnabled()) {
+      InitializedEvent event= new InitializedEvent();
+      event.pointCount= pointCount;
+      event.time= nanos;
+      event.commit();
+    }
+  }
+
+  /*-
+   * @see MedianCutListener#clusterSplit(int, long)
+   */
+  public void clusterSplit( int pointCount, long nanos)
+  {
+    if (SplitEvent.TYPE.isEnabled()) {
+      SplitEvent event= new SplitEvent();
+      event.pointCount= pointCount;
+      event.time= nanos;
+      event.commit();
+    }
+  }
+
+  /*-
+   * @see MedianCutListener#finished(int[], int, long)
+   */
+  public void finished( int[] clusterSizes, int comparisons, long nanos)
+  {
+    if (FinishedEvent.TYPE.isEnabled()) {
+      FinishedEvent event= new FinishedEvent();
+      event.clusterCount= clusterSizes.length;
+      int min= Integer.MAX_VALUE, max= 0;
+      for (int size : clusterSizes) {
+        min= Math.min( min, size);
+        max= Math.max( max, size);
+      }
+      event.minClusterSize= clusterSizes.length == 0 ? 0 : min;
+      event.maxClusterSize= max;
+      event.comparisons= comparisons;
+      event.time= nanos;
+      event.commit();
+    }
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * The initial cluster was set up.
+   *
+   * @author Martin Weber
+   */
+  @Name("mediancut.Initialized")
+  @Label("Median Cut Initialized")
+  @Category("Median Cut")
+  @StackTrace(false)
+  static class InitializedEvent extends Event
+  {
+    static final EventType TYPE=
+      EventType.getEventType( InitializedEvent.class);
+
+    @Label("Points")
+    int pointCount;
+
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+  }
+
+  /**
+   * A cluster was split.
+   *
+   * @author Martin Weber
+   */
+  @Name("mediancut.Split")
+  @Label("Median Cut Split")
+  @Category("Median Cut")
+  @StackTrace(false)
+  static class SplitEvent extends Event
+  {
+    static final EventType TYPE= EventType.getEventType( SplitEvent.class);
+
+    @Label("Points")
+    int pointCount;
+
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+  }
+
+  /**
+   * The representative points were determined.
+   *
+   * @author Martin Weber
+   */
+  @Name("mediancut.Finished")
+  @Label("Median Cut Finished")
+  @Category("Median Cut")
+  @StackTrace(false)
+  static class FinishedEvent extends Event
+  {
+    static final EventType TYPE=
+      EventType.getEventType( FinishedEvent.class);
+
+    @Label("Clusters")
+    int clusterCount;
+
+    @Label("Smallest Cluster")
+    int minClusterSize;
+
+    @Label("Largest Cluster")
+    int maxClusterSize;
+
+    @Label("Comparisons")
+    int comparisons;
+
+    @Label("Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long time;
+  }
+}
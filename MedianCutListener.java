@@ -0,0 +1,58 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+/**
+ * Receives notifications about the phases of a median cut, for example to
+ * find out where the time is spent. The methods of a run are called in
+ * order by the thread that performs the run; a listener shared by several
+ * runs at the same time must be thread-safe.<br>
+ * If no listener is set, the median cut is not instrumented at all.
+ *
+ * @author Martin Weber
+ * @see MedianCut#setListener(MedianCutListener)
+ * @see MedianCut4BoatSpeed#setListener(MedianCutListener)
+ * @see MedianCutFlightRecorder
+ */
+public interface MedianCutListener
+{
+
+  /**
+   * Called when the initial cluster holding all points is set up and shrunk.
+   * In parallel mode, this includes the splits done in advance.
+   *
+   * @param pointCount
+   *        the number of input points
+   * @param nanos
+   *        the time taken, in nanoseconds
+   */
+  public abstract void initialized( int pointCount, long nanos);
+
+  /**
+   * Called when the cluster with the longest side was split.
+   *
+   * @param pointCount
+   *        the number of points in the cluster
+   * @param nanos
+   *        the time taken to sort and split the points, in nanoseconds. In
+   *        parallel mode, clusters split in advance take no time here.
+   */
+  public abstract void clusterSplit( int pointCount, long nanos);
+
+  /**
+   * Called when the representative points are determined.
+   *
+   * @param clusterSizes
+   *        the number of points in each cluster, in the order of the
+   *        representative points
+   * @param comparisons
+   *        the number of times two clusters were compared by the length of
+   *        their longest side
+   * @param nanos
+   *        the time taken to find the representative points, in nanoseconds
+   */
+  public abstract void finished( int[] clusterSizes, int comparisons,
+    long nanos);
+
+}
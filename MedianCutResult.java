@@ -0,0 +1,81 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.List;
+
+
+/**
+ * The result of a median cut run with {@link StopCriteria}: the
+ * representative points and the criterion that ended the run.
+ *
+ * @author Martin Weber
+ * @see MedianCut#medianCut(DataPoint[], int, StopCriteria)
+ */
+public class MedianCutResult<DP extends DataPoint<DP>>
+{
+  /**
+   * The criterion that ended a median cut run.
+   */
+  public enum StopReason
+  {
+    /** the desired number of quantization levels was reached */
+    LEVELS_REACHED,
+    /** no cluster with more than one point was left to split */
+    NO_CLUSTER_LEFT,
+    /** the longest side of every cluster was below the tolerance */
+    TOLERANCE,
+    /** splitting the next cluster would have exceeded the processed points */
+    MAX_PROCESSED_POINTS,
+    /** the time limit was exceeded */
+    DEADLINE
+  }
+
+  private final List<DP> points;
+
+  private final StopReason stopReason;
+
+  private final long processedPoints;
+
+  /**
+   * @param points
+   *        the representative points
+   * @param stopReason
+   *        the criterion that ended the run
+   * @param processedPoints
+   *        the number of points processed by the run
+   */
+  MedianCutResult( List<DP> points, StopReason stopReason,
+    long processedPoints)
+  {
+    this.points= points;
+    this.stopReason= stopReason;
+    this.processedPoints= processedPoints;
+  }
+
+  /**
+   * Gets the representative points, one for each cluster.
+   */
+  public List<DP> getPoints()
+  {
+    return points;
+  }
+
+  /**
+   * Gets the criterion that ended the run.
+   */
+  public StopReason getStopReason()
+  {
+    return stopReason;
+  }
+
+  /**
+   * Gets the number of points processed by the run, counting the initial
+   * cluster and the points of each split cluster.
+   */
+  public long getProcessedPoints()
+  {
+    return processedPoints;
+  }
+}
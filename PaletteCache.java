@@ -0,0 +1,301 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Caches the palettes determined by {@link MedianCut4PackedRGB}, so that
+ * quantizing the same image again costs only the computation of its
+ * signature. Pixels are packed into an {@code int} as {@code 0xRRGGBB}, the
+ * alpha byte is ignored.<br>
+ * A palette is looked up by the signature of the pixels and the desired
+ * number of quantization levels. The signature is either a SHA-256 digest
+ * of the pixels or a hash of a coarse color histogram, which maps
+ * near-identical images (for example re-encoded ones) to the same palette.
+ * The least recently used palettes are evicted when the number of palettes or
+ * the total number of their colors exceeds its limit.<br>
+ * The cache may be shared by any number of threads. Palettes are determined
+ * outside of the lock, so threads missing the same palette at the same time
+ * each determine it.
+ *
+ * @author Martin Weber
+ */
+public class PaletteCache
+{
+  /**
+   * How the signature of the pixels is computed.
+   */
+  public enum Signature
+  {
+    /**
+     * a SHA-256 digest of the pixels, in order; hits identical images only,
+     * as a collision of distinct images is not to be expected
+     */
+    CONTENT,
+    /**
+     * a hash of the share of the pixels in each cell of a coarse color grid;
+     * hits images with nearly the same colors, regardless of their order
+     */
+    HISTOGRAM
+  }
+
+  /** number of significant bits of each channel for the coarse histogram */
+  private static final int HISTOGRAM_BITS= 3;
+
+  /** the share of a histogram cell is rounded to a multiple of 1/this */
+  private static final int HISTOGRAM_STEPS= 256;
+
+  /** number of pixels passed to the digest at a time */
+  private static final int DIGEST_CHUNK= 1 << 12;
+
+  private final Signature signature;
+
+  private final int maxEntries;
+
+  private final long maxWeight;
+
+  /** the palettes, the least recently used first */
+  private final LinkedHashMap<Key, int[]> palettes;
+
+  /** total number of colors of the cached palettes */
+  private long weight;
+
+  private long hitCount;
+
+  private long missCount;
+
+  private long evictionCount;
+
+  /**
+   * Creates an empty cache.
+   *
+   * @param signature
+   *        how the signature of the pixels is computed
+   * @param maxEntries
+   *        the maximum number of palettes held
+   * @param maxWeight
+   *        the maximum total number of colors of the palettes held
+   */
+  public PaletteCache( Signature signature, int maxEntries, long maxWeight)
+  {
+    if (maxEntries < 1 || maxWeight < 1)
+      throw new IllegalArgumentException( "limit < 1");
+    this.signature= signature;
+    this.maxEntries= maxEntries;
+    this.maxWeight= maxWeight;
+    palettes= new LinkedHashMap<Key, int[]>( 16, 0.75f, true);
+  }
+
+  /**
+   * Gets the palette of the specified pixels from the cache or determines it
+   * by {@link MedianCut4PackedRGB#medianCut(int[], int)} and caches it.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}. The order of the pixels is
+   *        left unchanged.
+   * @return the packed representative points ({@code 0xRRGGBB}), one for each
+   *         desired quantization level.
+   */
+  public int[] medianCut( int[] pixels, int desiredQuantizationLevels)
+  {
+    // a histogram signature is independent of the size of the image
+    final Key key=
+      signature == Signature.CONTENT ? new Key( contentDigest( pixels),
+        pixels.length, desiredQuantizationLevels) : new Key( toBytes(
+        histogramHash( pixels)), 0, desiredQuantizationLevels);
+    synchronized (this) {
+      final int[] palette= palettes.get( key);
+      if (palette != null) {
+        hitCount++;
+        return palette.clone();
+      }
+      missCount++;
+    }
+    final int[] palette=
+      new MedianCut4PackedRGB().medianCut( pixels.clone(),
+        desiredQuantizationLevels);
+    put( key, palette.clone());
+    return palette;
+  }
+
+  /**
+   * Caches the specified palette and evicts the least recently used ones
+   * beyond the limits.
+   */
+  private synchronized void put( Key key, int[] palette)
+  {
+    final int[] previous= palettes.put( key, palette);
+    if (previous != null)
+      weight-= previous.length;
+    weight+= palette.length;
+    Iterator<Map.Entry<Key, int[]>> it= palettes.entrySet().iterator();
+    while ((palettes.size() > maxEntries || weight > maxWeight)
+      && it.hasNext()) {
+      weight-= it.next().getValue().length;
+      it.remove();
+      evictionCount++;
+    }
+  }
+
+  /**
+   * Removes all palettes. The statistics are kept.
+   */
+  public synchronized void clear()
+  {
+    palettes.clear();
+    weight= 0;
+  }
+
+  /**
+   * Gets the number of palettes held.
+   */
+  public synchronized int size()
+  {
+    return palettes.size();
+  }
+
+  /**
+   * Gets the total number of colors of the palettes held.
+   */
+  public synchronized long getWeight()
+  {
+    return weight;
+  }
+
+  /**
+   * Gets the number of palettes found in the cache.
+   */
+  public synchronized long getHitCount()
+  {
+    return hitCount;
+  }
+
+  /**
+   * Gets the number of palettes not found in the cache.
+   */
+  public synchronized long getMissCount()
+  {
+    return missCount;
+  }
+
+  /**
+   * Gets the number of palettes evicted from the cache.
+   */
+  public synchronized long getEvictionCount()
+  {
+    return evictionCount;
+  }
+
+  /**
+   * Computes the SHA-256 digest of the channels of the specified pixels, in
+   * order.
+   */
+  static byte[] contentDigest( int[] pixels)
+  {
+    final MessageDigest digest;
+    try {
+      digest= MessageDigest.getInstance( "SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      // required of every Java platform
+      throw new IllegalStateException( ex);
+    }
+    final byte[] chunk= new byte[3 * DIGEST_CHUNK];
+    for (int from= 0; from < pixels.length; from+= DIGEST_CHUNK) {
+      final int to= Math.min( pixels.length, from + DIGEST_CHUNK);
+      int n= 0;
+      for (int i= from; i < to; i++) {
+        final int pixel= pixels[i];
+        chunk[n++]= (byte) (pixel >> 16);
+        chunk[n++]= (byte) (pixel >> 8);
+        chunk[n++]= (byte) pixel;
+      }
+      digest.update( chunk, 0, n);
+    }
+    return digest.digest();
+  }
+
+  /**
+   * Computes a hash of the share of the specified pixels in each cell of a
+   * coarse color grid.
+   */
+  static long histogramHash( int[] pixels)
+  {
+    final int shift= 8 - HISTOGRAM_BITS;
+    final int[] histogram= new int[1 << 3 * HISTOGRAM_BITS];
+    for (int pixel : pixels) {
+      histogram[(pixel >> 16 & 0xFF) >> shift << 2 * HISTOGRAM_BITS
+        | (pixel >> 8 & 0xFF) >> shift << HISTOGRAM_BITS
+        | (pixel & 0xFF) >> shift]++;
+    }
+    long hash= 0;
+    for (int count : histogram) {
+      final long share=
+        pixels.length == 0 ? 0 : ((long) count * HISTOGRAM_STEPS
+          + pixels.length / 2)
+          / pixels.length;
+      hash= (hash + share) * 0x9E3779B97F4A7C15L;
+      hash^= hash >>> 29;
+    }
+    return hash;
+  }
+
+  /**
+   * Gets the bytes of the specified value, most significant first.
+   */
+  private static byte[] toBytes( long value)
+  {
+    final byte[] bytes= new byte[8];
+    for (int i= 0; i < bytes.length; i++) {
+      bytes[i]= (byte) (value >>> 56 - 8 * i);
+    }
+    return bytes;
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * The key of a cached palette.
+   *
+   * @author Martin Weber
+   */
+  private static class Key
+  {
+    private final byte[] signature;
+
+    private final int pixelCount;
+
+    private final int levels;
+
+    Key( byte[] signature, int pixelCount, int levels)
+    {
+      this.signature= signature;
+      this.pixelCount= pixelCount;
+      this.levels= levels;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return Arrays.hashCode( signature) * 31 + levels;
+    }
+
+    @Override
+    public boolean equals( Object obj)
+    {
+      if ( !(obj instanceof Key))
+        return false;
+      Key rhs= (Key) obj;
+      return Arrays.equals( signature, rhs.signature)
+        && pixelCount == rhs.pixelCount && levels == rhs.levels;
+    }
+  }
+}
@@ -0,0 +1,364 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Maps RGB pixels to the index of the nearest color (by euclidean distance) of
+ * a palette, for example a palette determined by {@link MedianCut4PackedRGB}.
+ * Pixels are packed into an {@code int} as {@code 0xRRGGBB}, the alpha byte
+ * is ignored.<br>
+ * The RGB cube is divided into cells. For each cell, an inverse color map
+ * holds the palette entries that may be nearest to any color in that cell, so
+ * a pixel is compared to a few candidates only. The map is immutable, so it
+ * may be shared by any number of threads.
+ *
+ * @author Martin Weber
+ */
+public class PaletteMap
+{
+  /** number of significant bits of each channel that select a cell */
+  private static final int CELL_BITS= 4;
+
+  /** number of cells along each axis of the RGB cube */
+  private static final int CELLS_PER_AXIS= 1 << CELL_BITS;
+
+  /** number of values of a channel along each side of a cell */
+  private static final int CELL_SIZE= 256 / CELLS_PER_AXIS;
+
+  /** minimum number of pixels mapped by a single task in parallel mode */
+  private static final int MIN_CHUNK_SIZE= 1 << 14;
+
+  /** the palette, packed as {@code 0xRRGGBB} */
+  private final int[] palette;
+
+  /** index of the first candidate of each cell in {@link #candidates} */
+  private final int[] cellStart;
+
+  /** the palette indices of the candidates of all cells, cell by cell */
+  private final int[] candidates;
+
+  /**
+   * Creates a map for the specified palette.
+   *
+   * @param palette
+   *        the palette, packed as {@code 0xRRGGBB}
+   */
+  public PaletteMap( int[] palette)
+  {
+    if (palette.length == 0)
+      throw new IllegalArgumentException( "empty palette");
+    this.palette= new int[palette.length];
+    for (int i= 0; i < palette.length; i++) {
+      this.palette[i]= palette[i] & 0xFFFFFF;
+    }
+    final int numCells= CELLS_PER_AXIS * CELLS_PER_AXIS * CELLS_PER_AXIS;
+    cellStart= new int[numCells + 1];
+    int[] cellCandidates= new int[numCells * Math.min( palette.length, 16)];
+    final int[] minDist= new int[palette.length];
+    int size= 0;
+    for (int cell= 0; cell < numCells; cell++) {
+      final int r0= (cell >> 2 * CELL_BITS) * CELL_SIZE;
+      final int g0= (cell >> CELL_BITS & CELLS_PER_AXIS - 1) * CELL_SIZE;
+      final int b0= (cell & CELLS_PER_AXIS - 1) * CELL_SIZE;
+      // no color in the cell is farther from its nearest entry than this..
+      int bound= Integer.MAX_VALUE;
+      for (int i= 0; i < palette.length; i++) {
+        final int color= this.palette[i];
+        final int r= color >> 16, g= color >> 8 & 0xFF, b= color & 0xFF;
+        minDist[i]=
+          square( distanceToRange( r, r0)) + square( distanceToRange( g, g0))
+            + square( distanceToRange( b, b0));
+        final int maxDist=
+          square( distanceToFarEnd( r, r0)) + square( distanceToFarEnd( g, g0))
+            + square( distanceToFarEnd( b, b0));
+        if (maxDist < bound)
+          bound= maxDist;
+      }
+      // ..so entries farther away than the bound are never nearest
+      cellStart[cell]= size;
+      for (int i= 0; i < palette.length; i++) {
+        if (minDist[i] <= bound) {
+          if (size == cellCandidates.length) {
+            int[] tmp= new int[2 * size];
+            System.arraycopy( cellCandidates, 0, tmp, 0, size);
+            cellCandidates= tmp;
+          }
+          cellCandidates[size++]= i;
+        }
+      }
+    }
+    cellStart[numCells]= size;
+    candidates= new int[size];
+    System.arraycopy( cellCandidates, 0, candidates, 0, size);
+  }
+
+  /**
+   * Creates a map for the specified palette, for example a palette determined
+   * by {@link MedianCut}.
+   *
+   * @param palette
+   *        the palette, each point holding <code>{R, G, B}</code>
+   */
+  public PaletteMap( List<DataPoint3Byte> palette)
+  {
+    this( pack( palette));
+  }
+
+  /**
+   * Gets the number of colors of the palette.
+   */
+  public int getPaletteSize()
+  {
+    return palette.length;
+  }
+
+  /**
+   * Gets the palette.
+   *
+   * @return a copy of the palette, packed as {@code 0xRRGGBB}
+   */
+  public int[] getPalette()
+  {
+    return palette.clone();
+  }
+
+  /**
+   * Gets the index of the palette color nearest to the specified pixel. If
+   * several colors are nearest, the one with the lowest index is chosen.
+   *
+   * @param pixel
+   *        the pixel, packed as {@code 0xRRGGBB}
+   */
+  public int indexOf( int pixel)
+  {
+    final int r= pixel >> 16 & 0xFF, g= pixel >> 8 & 0xFF, b= pixel & 0xFF;
+    final int cell=
+      (r / CELL_SIZE) << 2 * CELL_BITS | (g / CELL_SIZE) << CELL_BITS
+        | (b / CELL_SIZE);
+    int best= -1;
+    int bestDist= Integer.MAX_VALUE;
+    for (int i= cellStart[cell], end= cellStart[cell + 1]; i < end; i++) {
+      final int index= candidates[i];
+      final int color= palette[index];
+      final int dist=
+        square( r - (color >> 16)) + square( g - (color >> 8 & 0xFF))
+          + square( b - (color & 0xFF));
+      if (dist < bestDist) {
+        bestDist= dist;
+        best= index;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Maps the specified pixels to the indices of their nearest palette colors.
+   * Requires a palette of at most 256 colors.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}
+   * @param offset
+   *        the index of the first pixel to map
+   * @param length
+   *        the number of pixels to map
+   * @param indices
+   *        receives the palette index of each pixel. The index of the first
+   *        pixel is stored at {@code indices[indicesOffset]}.
+   */
+  public void map( int[] pixels, int offset, int length, byte[] indices,
+    int indicesOffset)
+  {
+    checkByteIndices();
+    for (int i= 0; i < length; i++) {
+      indices[indicesOffset + i]= (byte) indexOf( pixels[offset + i]);
+    }
+  }
+
+  /**
+   * Maps the specified pixels to the indices of their nearest palette colors.
+   * Requires a palette of at most 65536 colors.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}
+   * @param offset
+   *        the index of the first pixel to map
+   * @param length
+   *        the number of pixels to map
+   * @param indices
+   *        receives the palette index of each pixel, to be read as an
+   *        unsigned value. The index of the first pixel is stored at
+   *        {@code indices[indicesOffset]}.
+   */
+  public void map( int[] pixels, int offset, int length, short[] indices,
+    int indicesOffset)
+  {
+    checkShortIndices();
+    for (int i= 0; i < length; i++) {
+      indices[indicesOffset + i]= (short) indexOf( pixels[offset + i]);
+    }
+  }
+
+  /**
+   * Maps all pixels to the indices of their nearest palette colors, using
+   * the threads of the specified pool. Requires a palette of at most 256
+   * colors.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}
+   * @param indices
+   *        receives the palette index of the pixel at the same index
+   */
+  public void map( int[] pixels, byte[] indices, ForkJoinPool pool)
+  {
+    checkByteIndices();
+    pool.invoke( new MapTask( pixels, indices, 0, pixels.length));
+  }
+
+  /**
+   * Maps all pixels to the indices of their nearest palette colors, using
+   * the threads of the specified pool. Requires a palette of at most 65536
+   * colors.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}
+   * @param indices
+   *        receives the palette index of the pixel at the same index, to be
+   *        read as an unsigned value
+   */
+  public void map( int[] pixels, short[] indices, ForkJoinPool pool)
+  {
+    checkShortIndices();
+    pool.invoke( new MapTask( pixels, indices, 0, pixels.length));
+  }
+
+  /**
+   * @throws IllegalStateException
+   *         if a palette index does not fit into a {@code byte}
+   */
+  private void checkByteIndices()
+  {
+    if (palette.length > 1 << 8)
+      throw new IllegalStateException( "palette too large for byte indices");
+  }
+
+  /**
+   * @throws IllegalStateException
+   *         if a palette index does not fit into a {@code short}
+   */
+  private void checkShortIndices()
+  {
+    if (palette.length > 1 << 16)
+      throw new IllegalStateException( "palette too large for short indices");
+  }
+
+  /**
+   * Gets the distance of a value to the range of values along a side of a
+   * cell.
+   *
+   * @param start
+   *        the first value of the range
+   */
+  private static int distanceToRange( int value, int start)
+  {
+    if (value < start)
+      return start - value;
+    if (value >= start + CELL_SIZE)
+      return value - (start + CELL_SIZE - 1);
+    return 0;
+  }
+
+  /**
+   * Gets the distance of a value to the farther end of the range of values
+   * along a side of a cell.
+   *
+   * @param start
+   *        the first value of the range
+   */
+  private static int distanceToFarEnd( int value, int start)
+  {
+    return Math.max( Math.abs( value - start), Math.abs( value
+      - (start + CELL_SIZE - 1)));
+  }
+
+  private static int square( int value)
+  {
+    return value * value;
+  }
+
+  /**
+   * Packs the specified points as {@code 0xRRGGBB}.
+   */
+  static int[] pack( List<DataPoint3Byte> points)
+  {
+    int[] result= new int[points.size()];
+    for (int i= 0; i < result.length; i++) {
+      final DataPoint3Byte point= points.get( i);
+      result[i]=
+        (point.getValue( (short) 0) & 0xFF) << 16
+          | (point.getValue( (short) 1) & 0xFF) << 8
+          | (point.getValue( (short) 2) & 0xFF);
+    }
+    return result;
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * Maps a range of pixels, dividing it among several tasks if it is large.
+   *
+   * @author Martin Weber
+   */
+  private class MapTask extends RecursiveAction
+  {
+    private static final long serialVersionUID= 1L;
+
+    private final int[] pixels;
+
+    /** either a {@code byte[]} or a {@code short[]} */
+    private final Object indices;
+
+    private final int from;
+
+    private final int to;
+
+    /**
+     * @param pixels
+     * @param indices
+     *        either a {@code byte[]} or a {@code short[]}
+     * @param from
+     *        the index of the first pixel to map
+     * @param to
+     *        the index after the last pixel to map
+     */
+    MapTask( int[] pixels, Object indices, int from, int to)
+    {
+      this.pixels= pixels;
+      this.indices= indices;
+      this.from= from;
+      this.to= to;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if (to - from < 2 * MIN_CHUNK_SIZE) {
+        if (indices instanceof byte[]) {
+          map( pixels, from, to - from, (byte[]) indices, from);
+        } else {
+          map( pixels, from, to - from, (short[]) indices, from);
+        }
+      } else {
+        final int mid= (from + to) >>> 1;
+        invokeAll( new MapTask( pixels, indices, from, mid), new MapTask(
+          pixels, indices, mid, to));
+      }
+    }
+  }
+}
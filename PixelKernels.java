@@ -0,0 +1,124 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+/**
+ * The inner loops over packed RGB pixels ({@code 0xRRGGBB}) that may run on
+ * several pixels at a time. Like {@link DataPoint3Byte}, channels are
+ * interpreted as signed bytes.<br>
+ * If the class {@code VectorPixelKernels} (see the {@code vector} directory)
+ * is on the class path and the {@code jdk.incubator.vector} module is
+ * available (<code>--add-modules jdk.incubator.vector</code>), its kernels
+ * using the Vector API are used. Otherwise, or if the system property
+ * {@code mediancut.vector} is {@code false}, plain scalar loops are used.
+ * Both yield the same results.
+ *
+ * @author Martin Weber
+ */
+abstract class PixelKernels
+{
+  /** the kernels in use */
+  private static final PixelKernels INSTANCE= load();
+
+  /**
+   * Gets the kernels in use.
+   */
+  static PixelKernels get()
+  {
+    return INSTANCE;
+  }
+
+  /**
+   * Gets a short description of the kernels, for reports.
+   */
+  abstract String getName();
+
+  /**
+   * Adds the channels of the specified pixels to bounds and sums.
+   *
+   * @param from
+   *        the index of the first pixel
+   * @param to
+   *        the index after the last pixel
+   * @param min
+   *        the minimum of each channel, updated
+   * @param max
+   *        the maximum of each channel, updated
+   * @param sum
+   *        the sum of each channel, updated
+   * @param base
+   *        the index in {@code min}, {@code max} and {@code sum} of the red
+   *        channel, followed by green and blue
+   */
+  abstract void addBounds( int[] pixels, int from, int to, int[] min,
+    int[] max, long[] sum, int base);
+
+  /**
+   * Loads the vector kernels or falls back to the scalar ones.
+   */
+  private static PixelKernels load()
+  {
+    if ( !"false".equals( System.getProperty( "mediancut.vector"))) {
+      try {
+        return (PixelKernels) Class.forName( "VectorPixelKernels")
+          .getDeclaredConstructor().newInstance();
+      } catch (Exception ex) {
+        // not on the class path, fall through
+      } catch (LinkageError err) {
+        // module jdk.incubator.vector not available, fall through
+      }
+    }
+    return new Scalar();
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * Kernels that process one pixel at a time.
+   *
+   * @author Martin Weber
+   */
+  static class Scalar extends PixelKernels
+  {
+    @Override
+    String getName()
+    {
+      return "scalar";
+    }
+
+    @Override
+    void addBounds( int[] pixels, int from, int to, int[] min, int[] max,
+      long[] sum, int base)
+    {
+      int minR= min[base], minG= min[base + 1], minB= min[base + 2];
+      int maxR= max[base], maxG= max[base + 1], maxB= max[base + 2];
+      long sumR= 0, sumG= 0, sumB= 0;
+      for (int i= from; i < to; i++) {
+        final int pixel= pixels[i];
+        final int r= (byte) (pixel >> 16);
+        final int g= (byte) (pixel >> 8);
+        final int b= (byte) pixel;
+        minR= Math.min( minR, r);
+        maxR= Math.max( maxR, r);
+        sumR+= r;
+        minG= Math.min( minG, g);
+        maxG= Math.max( maxG, g);
+        sumG+= g;
+        minB= Math.min( minB, b);
+        maxB= Math.max( maxB, b);
+        sumB+= b;
+      }
+      min[base]= minR;
+      min[base + 1]= minG;
+      min[base + 2]= minB;
+      max[base]= maxR;
+      max[base + 1]= maxG;
+      max[base + 2]= maxB;
+      sum[base]+= sumR;
+      sum[base + 1]+= sumG;
+      sum[base + 2]+= sumB;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+/**
+ * Determines the order in which the median cut splits clusters: the cluster
+ * with the highest priority is split next. The priority of a cluster is
+ * computed once, when its bounds are known.
+ *
+ * @author Martin Weber
+ * @see MedianCut#setPriorityPolicy(PriorityPolicy)
+ */
+public interface PriorityPolicy
+{
+  /**
+   * Splits the cluster with the longest side first, as the original median
+   * cut does.
+   */
+  public static final PriorityPolicy LONGEST_SIDE= new PriorityPolicy() {
+
+    public long getPriority( int pointCount, int[] min, int[] max)
+    {
+      return longestSide( min, max);
+    }
+  };
+
+  /**
+   * Splits the cluster with the largest product of its number of points and
+   * the length of its longest side first. So large clusters are split before
+   * sparse outliers, which favors the colors most pixels have.
+   */
+  public static final PriorityPolicy POINTS_TIMES_EXTENT=
+    new PriorityPolicy() {
+
+      public long getPriority( int pointCount, int[] min, int[] max)
+      {
+        return (long) pointCount * longestSide( min, max);
+      }
+    };
+
+  /**
+   * Computes the priority of a cluster.
+   *
+   * @param pointCount
+   *        the number of points in the cluster
+   * @param min
+   *        the minimum value of the points in each dimension. Must not be
+   *        modified.
+   * @param max
+   *        the maximum value of the points in each dimension. Must not be
+   *        modified.
+   * @return the priority, higher values are split first
+   */
+  public abstract long getPriority( int pointCount, int[] min, int[] max);
+
+  /**
+   * Gets the length of the longest side of a block.
+   */
+  static int longestSide( int[] min, int[] max)
+  {
+    int maxLen= max[0] - min[0];
+    for (int dim= 1; dim < min.length; dim++) {
+      maxLen= Math.max( maxLen, max[dim] - min[dim]);
+    }
+    return maxLen;
+  }
+}
@@ -0,0 +1,392 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+/**
+ * Median cut for RGB pixels packed into an {@code int} as {@code 0xRRGGBB},
+ * like {@link MedianCut4PackedRGB}, but reusable: the state of the clusters
+ * is kept in primitive arrays sized by the maximum number of quantization
+ * levels, and the scratch storage is kept from run to run. So once the
+ * buffers are large enough, a run allocates nothing but the returned palette,
+ * or nothing at all if the palette is written to an array of the caller.<br>
+ * The queue of the clusters is a binary heap of cluster numbers that orders
+ * like the {@link java.util.PriorityQueue} of {@code MedianCut4PackedRGB}, so
+ * both compute the same representative points.<br>
+ * An instance must not be used by several threads at the same time.
+ *
+ * @author Martin Weber
+ */
+public class ReusableMedianCut4PackedRGB
+{
+  /** number of dimensions (color channels) of a packed pixel */
+  private static final int NUM_DIMENSIONS= 3;
+
+  /** number of distinct values of a channel */
+  private static final int NUM_VALUES= 256;
+
+  /** counters used for sorting, one for each value of a channel */
+  private final int[] histogram= new int[NUM_VALUES];
+
+  /** scratch storage of at least the size of the pixels */
+  private int[] scratch;
+
+  /** the first index of the pixels of each cluster */
+  private int[] offset;
+
+  /** the number of pixels of each cluster */
+  private int[] count;
+
+  /**
+   * the corners of the block of each cluster, each channel as signed value,
+   * cluster by cluster
+   */
+  private int[] minCorner;
+
+  private int[] maxCorner;
+
+  /** the sum of the values of the pixels of each cluster, for each channel */
+  private long[] sum;
+
+  /** the length of the longest side of each cluster, cached */
+  private int[] longestSide;
+
+  /**
+   * a heap of cluster numbers with the Cluster having the longest side to have
+   * maximum priority
+   */
+  private int[] queue;
+
+  /** the number of clusters in the queue */
+  private int size;
+
+  /**
+   * Creates a new instance with buffers for the specified sizes.
+   *
+   * @param maxPixels
+   *        the number of pixels to size the scratch storage for
+   * @param maxQuantizationLevels
+   *        the number of quantization levels to size the cluster state for
+   */
+  public ReusableMedianCut4PackedRGB( int maxPixels, int maxQuantizationLevels)
+  {
+    reset( maxPixels, maxQuantizationLevels);
+  }
+
+  /**
+   * Reallocates the buffers for the specified sizes, for example to release
+   * the memory held for a large image.
+   *
+   * @param maxPixels
+   *        the number of pixels to size the scratch storage for
+   * @param maxQuantizationLevels
+   *        the number of quantization levels to size the cluster state for
+   */
+  public void reset( int maxPixels, int maxQuantizationLevels)
+  {
+    if (maxPixels < 0 || maxQuantizationLevels < 1)
+      throw new IllegalArgumentException( "maxPixels < 0 or levels < 1");
+    scratch= new int[maxPixels];
+    offset= new int[maxQuantizationLevels];
+    count= new int[maxQuantizationLevels];
+    minCorner= new int[maxQuantizationLevels * NUM_DIMENSIONS];
+    maxCorner= new int[maxQuantizationLevels * NUM_DIMENSIONS];
+    sum= new long[maxQuantizationLevels * NUM_DIMENSIONS];
+    longestSide= new int[maxQuantizationLevels];
+    queue= new int[maxQuantizationLevels];
+    size= 0;
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level. If the buffers
+   * are too small for the input, they are enlarged.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}. The alpha byte is ignored.
+   *        Note that the order of the pixels is changed by this method.
+   * @return the packed representative points ({@code 0xRRGGBB}), one for each
+   *         desired quantization level.
+   */
+  public int[] medianCut( int[] pixels, int desiredQuantizationLevels)
+  {
+    final int clusters=
+      cut( pixels, 0, pixels.length, desiredQuantizationLevels);
+    int[] result= new int[clusters];
+    getRepresentativePoints( result, 0);
+    return result;
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level without
+   * allocating, unless the buffers are too small for the input.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}. The alpha byte is ignored.
+   *        Note that the order of the pixels is changed by this method.
+   * @param pixelOffset
+   *        the index of the first pixel
+   * @param length
+   *        the number of pixels
+   * @param palette
+   *        receives the packed representative points ({@code 0xRRGGBB}), one
+   *        for each desired quantization level
+   * @param paletteOffset
+   *        the index in {@code palette} of the first representative point
+   * @return the number of representative points
+   */
+  public int medianCut( int[] pixels, int pixelOffset, int length,
+    int desiredQuantizationLevels, int[] palette, int paletteOffset)
+  {
+    final int clusters=
+      cut( pixels, pixelOffset, length, desiredQuantizationLevels);
+    if (palette.length - paletteOffset < clusters)
+      throw new IllegalArgumentException( "palette too small for " + clusters
+        + " colors");
+    getRepresentativePoints( palette, paletteOffset);
+    return clusters;
+  }
+
+  /**
+   * Splits the pixels into clusters, leaving them in the queue.
+   *
+   * @return the number of clusters
+   */
+  private int cut( int[] pixels, int pixelOffset, int length,
+    int desiredQuantizationLevels)
+  {
+    if (scratch.length < pixelOffset + length)
+      scratch= new int[pixelOffset + length];
+    if (queue.length < desiredQuantizationLevels)
+      reset( scratch.length, desiredQuantizationLevels);
+    size= 0;
+    if (length == 0)
+      return 0;
+    // create initial block
+    offset[0]= pixelOffset;
+    count[0]= length;
+    shrink( pixels, 0);
+    offer( 0);
+    int clusters= 1;
+    // While the number of clusters is less than desired number...
+    while (size < desiredQuantizationLevels && count[queue[0]] > 1) {
+
+      // Find the largest side length of any side of any cluster..
+      final int longestBlock= poll();
+
+      // split off block2 from longestBlock, both get shrunk while splitting
+      final int block2= clusters++;
+      split( pixels, longestBlock, block2);
+
+      offer( longestBlock);
+      offer( block2);
+    }
+    return size;
+  }
+
+  /**
+   * Takes the clusters from the queue in order and writes their
+   * representative points.
+   */
+  private void getRepresentativePoints( int[] palette, int paletteOffset)
+  {
+    for (int i= paletteOffset; size > 0; i++) {
+      palette[i]= getRepresentativePoint( poll());
+    }
+  }
+
+  /**
+   * Shrinks a block so that it just barely contains its points. Also sums up
+   * the points.
+   */
+  private void shrink( int[] pixels, int cluster)
+  {
+    clear( cluster);
+    final int from= offset[cluster];
+    PixelKernels.get().addBounds( pixels, from, from + count[cluster],
+      minCorner, maxCorner, sum, cluster * NUM_DIMENSIONS);
+    updateLongestSide( cluster);
+  }
+
+  /**
+   * Empties the bounds and the sums of a block.
+   */
+  private void clear( int cluster)
+  {
+    final int base= cluster * NUM_DIMENSIONS;
+    for (int dim= 0; dim < NUM_DIMENSIONS; dim++) {
+      minCorner[base + dim]= Integer.MAX_VALUE;
+      maxCorner[base + dim]= Integer.MIN_VALUE;
+      sum[base + dim]= 0;
+    }
+  }
+
+  /**
+   * Adds a point to the bounds and the sums of a block.
+   */
+  private void add( int cluster, int pixel)
+  {
+    final int base= cluster * NUM_DIMENSIONS;
+    for (int dim= 0; dim < NUM_DIMENSIONS; dim++) {
+      final int value= MedianCut4PackedRGB.getValue( pixel, dim);
+      if (value < minCorner[base + dim])
+        minCorner[base + dim]= value;
+      if (value > maxCorner[base + dim])
+        maxCorner[base + dim]= value;
+      sum[base + dim]+= value;
+    }
+  }
+
+  /**
+   * figures out which side (dimension) of a block is longest.
+   *
+   * @return the number of dimension with the longest side.
+   */
+  private int longestSideIndex( int cluster)
+  {
+    final int base= cluster * NUM_DIMENSIONS;
+    int maxLen= maxCorner[base] - minCorner[base];
+    int dimension= 0;
+    for (int dim= 1; dim < NUM_DIMENSIONS; dim++) {
+      int diff= maxCorner[base + dim] - minCorner[base + dim];
+      if (diff > maxLen) {
+        maxLen= diff;
+        dimension= dim;
+      }
+    }
+    return dimension;
+  }
+
+  /**
+   * Caches the length of the longest side of a block.
+   */
+  private void updateLongestSide( int cluster)
+  {
+    final int dim= cluster * NUM_DIMENSIONS + longestSideIndex( cluster);
+    longestSide[cluster]= maxCorner[dim] - minCorner[dim];
+  }
+
+  /**
+   * Partitions the points of a block into two sublists like
+   * {@link MedianCut4PackedRGB} does. The block keeps the lower half.
+   *
+   * @param block2
+   *        the number of the new cluster to receive the upper half
+   */
+  private void split( int[] pixels, int cluster, int block2)
+  {
+    final int dim= longestSideIndex( cluster);
+    final int shift= 16 - 8 * dim;
+    final int base= cluster * NUM_DIMENSIONS;
+    final int min= minCorner[base + dim] - Byte.MIN_VALUE;
+    final int max= maxCorner[base + dim] - Byte.MIN_VALUE;
+    final int from= offset[cluster];
+    final int cnt= count[cluster];
+    final int end= from + cnt;
+    final int median= (cnt + 1) / 2;
+    final int split= from + median;
+    offset[block2]= split;
+    count[block2]= cnt - median;
+    count[cluster]= median;
+    if (min == max) {
+      // all points are equal on that side: already sorted
+      shrink( pixels, cluster);
+      shrink( pixels, block2);
+      return;
+    }
+    for (int v= min; v <= max; v++) {
+      histogram[v]= 0;
+    }
+    for (int i= from; i < end; i++) {
+      histogram[((byte) (pixels[i] >> shift)) - Byte.MIN_VALUE]++;
+    }
+    // turn counts into start indices..
+    for (int v= min, start= from; v <= max; v++) {
+      final int c= histogram[v];
+      histogram[v]= start;
+      start+= c;
+    }
+    clear( cluster);
+    clear( block2);
+    for (int i= from; i < end; i++) {
+      final int pixel= pixels[i];
+      final int idx= histogram[((byte) (pixel >> shift)) - Byte.MIN_VALUE]++;
+      scratch[idx]= pixel;
+      add( idx < split ? cluster : block2, pixel);
+    }
+    System.arraycopy( scratch, from, pixels, from, cnt);
+    updateLongestSide( cluster);
+    updateLongestSide( block2);
+  }
+
+  /**
+   * Finds a representative point for a block. Implemented to compute the
+   * arithmetic mean (average) of all points in the cluster.
+   *
+   * @return a representative point for the block, packed as
+   *         {@code 0xRRGGBB}
+   */
+  private int getRepresentativePoint( int cluster)
+  {
+    final int base= cluster * NUM_DIMENSIONS;
+    final int cnt= count[cluster];
+    return (((byte) (sum[base] / cnt)) & 0xFF) << 16
+      | (((byte) (sum[base + 1] / cnt)) & 0xFF) << 8
+      | (((byte) (sum[base + 2] / cnt)) & 0xFF);
+  }
+
+  /**
+   * Compares two blocks by the length of their longest side.
+   */
+  private int compare( int lhs, int rhs)
+  {
+    return longestSide[rhs] - longestSide[lhs];
+  }
+
+  /**
+   * Inserts a cluster into the queue, sifting it up like
+   * {@link java.util.PriorityQueue#offer(Object)} does.
+   */
+  private void offer( int cluster)
+  {
+    int k= size++;
+    while (k > 0) {
+      final int parent= (k - 1) >>> 1;
+      final int e= queue[parent];
+      if (compare( cluster, e) >= 0)
+        break;
+      queue[k]= e;
+      k= parent;
+    }
+    queue[k]= cluster;
+  }
+
+  /**
+   * Removes the cluster with the maximum priority from the queue, sifting
+   * the last one down like {@link java.util.PriorityQueue#poll()} does.
+   */
+  private int poll()
+  {
+    final int result= queue[0];
+    final int n= --size;
+    if (n > 0) {
+      final int x= queue[n];
+      final int half= n >>> 1;
+      int k= 0;
+      while (k < half) {
+        int child= 2 * k + 1;
+        int c= queue[child];
+        final int right= child + 1;
+        if (right < n && compare( c, queue[right]) > 0)
+          c= queue[child= right];
+        if (compare( x, c) <= 0)
+          break;
+        queue[k]= c;
+        k= child;
+      }
+      queue[k]= x;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,352 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.Random;
+
+
+/**
+ * Median cut for large images of RGB pixels packed into an {@code int} as
+ * {@code 0xRRGGBB}, run on a sample of the pixels. So the time taken grows
+ * with the size of the sample rather than with the size of the image.<br>
+ * The sample is spatially stratified: the image is divided into blocks of
+ * about equal size, one block for each sampled pixel, and a pixel is chosen
+ * at random within each block. Optionally, the representative points found on
+ * the sample are refined by a single pass over all pixels, which moves each
+ * point to the mean of the pixels nearest to it and measures the
+ * quantization error on the way.<br>
+ * The instance holds no state of a run, so it may be shared by any number of
+ * threads.
+ *
+ * @author Martin Weber
+ */
+public class SampledMedianCut4PackedRGB
+{
+  /** seed of the random choice of pixels, so runs are reproducible */
+  private static final long SEED= 0x5DEECE66DL;
+
+  /** the number of pixels to sample */
+  private final int sampleSize;
+
+  /** whether to refine the representative points by a pass over all pixels */
+  private final boolean refine;
+
+  /**
+   * @param sampleSize
+   *        the number of pixels to sample, for example a few hundred
+   *        thousand. Images with fewer pixels are not sampled.
+   * @param refine
+   *        whether to refine the representative points found on the sample by
+   *        a pass over all pixels
+   */
+  public SampledMedianCut4PackedRGB( int sampleSize, boolean refine)
+  {
+    if (sampleSize < 1)
+      throw new IllegalArgumentException( "sampleSize < 1");
+    this.sampleSize= sampleSize;
+    this.refine= refine;
+  }
+
+  /**
+   * Determines the most representative values of the specified image for the
+   * desired number of quantization level.
+   *
+   * @param pixels
+   *        the pixels of the image, row by row, packed as {@code 0xRRGGBB}.
+   *        The alpha byte is ignored. The order of the pixels is left
+   *        unchanged.
+   * @param width
+   *        the width of the image; {@code pixels.length} to sample the pixels
+   *        as a single row
+   * @return the representative points and the quantization error
+   */
+  public Result medianCut( int[] pixels, int width,
+    int desiredQuantizationLevels)
+  {
+    final int[] sample= sample( pixels, width);
+    int[] palette=
+      new MedianCut4PackedRGB().medianCut( sample.clone(),
+        desiredQuantizationLevels);
+    final double sampleError= meanSquaredError( sample, palette);
+    double error= Double.NaN;
+    if (refine && palette.length > 0) {
+      final double[] errorOut= new double[1];
+      palette= refine( pixels, palette, errorOut);
+      error= errorOut[0];
+    }
+    return new Result( palette, sample.length, sampleError, error);
+  }
+
+  /**
+   * Determines the representative points of the specified image both from a
+   * sample and from all pixels and reports the quantization error of each.
+   * Takes as long as both runs, so it is meant to choose a sample size.
+   *
+   * @param pixels
+   *        the pixels of the image, row by row, packed as {@code 0xRRGGBB}.
+   *        The order of the pixels is left unchanged.
+   * @param width
+   *        the width of the image
+   */
+  public ErrorReport compare( int[] pixels, int width,
+    int desiredQuantizationLevels)
+  {
+    final Result sampled= medianCut( pixels, width, desiredQuantizationLevels);
+    final int[] exact=
+      new MedianCut4PackedRGB().medianCut( pixels.clone(),
+        desiredQuantizationLevels);
+    return new ErrorReport( sampled, meanSquaredError( pixels,
+      sampled.getPalette()), meanSquaredError( pixels, exact));
+  }
+
+  /**
+   * Chooses a pixel at random in each block of the image. The blocks are
+   * about square, sized so that there are about as many as pixels to sample,
+   * but never more. For thin images, whose blocks cannot be square, the
+   * blocks span the image across.
+   *
+   * @return the sampled pixels or a copy of all pixels, if there are not
+   *         more than the sample size
+   */
+  int[] sample( int[] pixels, int width)
+  {
+    if (pixels.length <= sampleSize)
+      return pixels.clone();
+    if (width < 1 || pixels.length % width != 0)
+      throw new IllegalArgumentException( "width does not fit the pixels");
+    final int height= pixels.length / width;
+    final Random random= new Random( SEED);
+    if (height == 1 || width == 1) {
+      // a single row or column: stratify along the pixels
+      int[] sample= new int[sampleSize];
+      for (int i= 0; i < sampleSize; i++) {
+        final int from= (int) ((long) pixels.length * i / sampleSize);
+        final int to= (int) ((long) pixels.length * (i + 1) / sampleSize);
+        sample[i]= pixels[from + random.nextInt( to - from)];
+      }
+      return sample;
+    }
+    final double side=
+      Math.max( 1.0, Math.sqrt( (double) pixels.length / sampleSize));
+    // derive the rows from the columns, so there are not more blocks than
+    // pixels to sample
+    final int columns=
+      (int) Math.min( Math.min( width, sampleSize), Math.max( 1,
+        Math.round( width / side)));
+    final int rows=
+      (int) Math.min( Math.min( height, sampleSize / columns), Math.max( 1,
+        Math.round( height / side)));
+    if ((long) columns * rows > sampleSize)
+      throw new IllegalStateException( columns + " x " + rows
+        + " blocks exceed the sample size " + sampleSize);
+    int[] sample= new int[columns * rows];
+    int n= 0;
+    for (int row= 0; row < rows; row++) {
+      final int top= (int) ((long) height * row / rows);
+      final int bottom= (int) ((long) height * (row + 1) / rows);
+      for (int column= 0; column < columns; column++) {
+        final int left= (int) ((long) width * column / columns);
+        final int right= (int) ((long) width * (column + 1) / columns);
+        final int y= top + random.nextInt( bottom - top);
+        final int x= left + random.nextInt( right - left);
+        sample[n++]= pixels[y * width + x];
+      }
+    }
+    return sample;
+  }
+
+  /**
+   * Moves each representative point to the mean of the pixels nearest to it.
+   * Points no pixel is nearest to are kept.
+   *
+   * @param errorOut
+   *        receives the mean squared error of the pixels quantized to the
+   *        specified palette
+   * @return the refined palette, in the order of the specified one
+   */
+  private static int[] refine( int[] pixels, int[] palette, double[] errorOut)
+  {
+    final PaletteMap map= new PaletteMap( palette);
+    final long[] sumR= new long[palette.length];
+    final long[] sumG= new long[palette.length];
+    final long[] sumB= new long[palette.length];
+    final long[] count= new long[palette.length];
+    long error= 0;
+    for (int pixel : pixels) {
+      final int index= map.indexOf( pixel);
+      final int r= pixel >> 16 & 0xFF, g= pixel >> 8 & 0xFF, b= pixel & 0xFF;
+      sumR[index]+= r;
+      sumG[index]+= g;
+      sumB[index]+= b;
+      count[index]++;
+      error+= distance( palette[index], r, g, b);
+    }
+    errorOut[0]= pixels.length == 0 ? 0 : (double) error / pixels.length;
+    int[] result= palette.clone();
+    for (int i= 0; i < result.length; i++) {
+      final long n= count[i];
+      if (n > 0) {
+        result[i]=
+          (int) ((sumR[i] + n / 2) / n) << 16
+            | (int) ((sumG[i] + n / 2) / n) << 8
+            | (int) ((sumB[i] + n / 2) / n);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Gets the mean squared error of the specified pixels quantized to the
+   * nearest color of the specified palette, summed over the channels.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}
+   * @param palette
+   *        the palette, packed as {@code 0xRRGGBB}
+   */
+  public static double meanSquaredError( int[] pixels, int[] palette)
+  {
+    if (pixels.length == 0 || palette.length == 0)
+      return 0;
+    final PaletteMap map= new PaletteMap( palette);
+    long error= 0;
+    for (int pixel : pixels) {
+      error+=
+        distance( palette[map.indexOf( pixel)], pixel >> 16 & 0xFF,
+          pixel >> 8 & 0xFF, pixel & 0xFF);
+    }
+    return (double) error / pixels.length;
+  }
+
+  /**
+   * Gets the squared euclidean distance of a color to a pixel.
+   */
+  private static int distance( int color, int r, int g, int b)
+  {
+    final int dr= r - (color >> 16 & 0xFF);
+    final int dg= g - (color >> 8 & 0xFF);
+    final int db= b - (color & 0xFF);
+    return dr * dr + dg * dg + db * db;
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * The representative points found on a sample.
+   *
+   * @author Martin Weber
+   */
+  public static class Result
+  {
+    private final int[] palette;
+
+    private final int sampleSize;
+
+    private final double sampleError;
+
+    private final double error;
+
+    Result( int[] palette, int sampleSize, double sampleError, double error)
+    {
+      this.palette= palette;
+      this.sampleSize= sampleSize;
+      this.sampleError= sampleError;
+      this.error= error;
+    }
+
+    /**
+     * Gets the packed representative points ({@code 0xRRGGBB}), one for each
+     * desired quantization level.
+     */
+    public int[] getPalette()
+    {
+      return palette;
+    }
+
+    /**
+     * Gets the number of pixels sampled.
+     */
+    public int getSampleSize()
+    {
+      return sampleSize;
+    }
+
+    /**
+     * Gets the mean squared error of the sample quantized to the points found
+     * on it, an estimate of the error of the whole image.
+     */
+    public double getSampleError()
+    {
+      return sampleError;
+    }
+
+    /**
+     * Gets the mean squared error of all pixels quantized to the points found
+     * on the sample, before refining them.
+     *
+     * @return the error or {@code NaN} if the points were not refined
+     */
+    public double getError()
+    {
+      return error;
+    }
+  }
+
+  /**
+   * The quantization errors of a sampled run compared to a run on all pixels.
+   *
+   * @author Martin Weber
+   */
+  public static class ErrorReport
+  {
+    private final Result sampled;
+
+    private final double sampledError;
+
+    private final double exactError;
+
+    ErrorReport( Result sampled, double sampledError, double exactError)
+    {
+      this.sampled= sampled;
+      this.sampledError= sampledError;
+      this.exactError= exactError;
+    }
+
+    /**
+     * Gets the result of the sampled run.
+     */
+    public Result getSampled()
+    {
+      return sampled;
+    }
+
+    /**
+     * Gets the mean squared error of all pixels quantized to the (refined)
+     * points of the sampled run.
+     */
+    public double getSampledError()
+    {
+      return sampledError;
+    }
+
+    /**
+     * Gets the mean squared error of all pixels quantized to the points found
+     * on all pixels.
+     */
+    public double getExactError()
+    {
+      return exactError;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format( "sample %d: mse %.3f (exact %.3f, %+.1f%%)",
+        sampled.getSampleSize(), sampledError, exactError,
+        exactError == 0 ? 0.0 : 100 * (sampledError - exactError)
+          / exactError);
+    }
+  }
+}
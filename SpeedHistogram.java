@@ -0,0 +1,434 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * A compact summary of a distribution of speed values: a weighted histogram
+ * with bins of a fixed width. For each bin, the number of values, their sum
+ * and their extremes are kept, so the clusters determined from the histogram
+ * have exact means and bounds, and their boundaries are off by at most one
+ * bin width.<br>
+ * Only bins holding values are stored, so a stray value far off the others
+ * takes a single bin. The number of bins is limited: once more bins would be
+ * needed, the width of the bins is doubled by joining neighboring bins, as
+ * often as necessary. So the memory taken is bounded regardless of the range
+ * and the number of values.<br>
+ * Histograms of the same resolution built independently, for example for the
+ * shards of a log, can be merged in any order; the merged histogram gets the
+ * coarser of the two bin widths, coarsened further if the bins would exceed
+ * the limit.<br>
+ * A histogram must not be used by several threads at the same time.
+ *
+ * @author Martin Weber
+ * @see MedianCut4BoatSpeed#medianCut(SpeedHistogram, int)
+ */
+public class SpeedHistogram implements Serializable
+{
+  private static final long serialVersionUID= 2L;
+
+  /** the default maximum number of bins */
+  private static final int DEFAULT_MAX_BINS= 1 << 14;
+
+  /** initial number of slots, a power of two */
+  private static final int INITIAL_CAPACITY= 1 << 6;
+
+  /** the width of a bin before any coarsening */
+  private final float resolution;
+
+  /** the maximum number of bins */
+  private final int maxBins;
+
+  /** the number of times the width of the bins was doubled */
+  private int coarsening;
+
+  /** the total number of values */
+  private long totalCount;
+
+  /** the number of the bin held in each slot */
+  private transient long[] bins;
+
+  /** the number of values in the bin at the same slot, 0 for unused slots */
+  private transient long[] counts;
+
+  /** the sum of the values in the bin at the same slot */
+  private transient double[] sums;
+
+  /** the minimum value in the bin at the same slot */
+  private transient float[] minima;
+
+  /** the maximum value in the bin at the same slot */
+  private transient float[] maxima;
+
+  /** number of used slots */
+  private transient int size;
+
+  /**
+   * Creates an empty histogram that holds at most 16384 bins.
+   *
+   * @param resolution
+   *        the width of a bin, for example 0.01 knots
+   */
+  public SpeedHistogram( float resolution)
+  {
+    this( resolution, DEFAULT_MAX_BINS);
+  }
+
+  /**
+   * Creates an empty histogram.
+   *
+   * @param resolution
+   *        the width of a bin, for example 0.01 knots
+   * @param maxBins
+   *        the maximum number of bins, at least 2
+   */
+  public SpeedHistogram( float resolution, int maxBins)
+  {
+    if ( !(resolution > 0) || Float.isInfinite( resolution))
+      throw new IllegalArgumentException( "resolution not positive");
+    if (maxBins < 2)
+      throw new IllegalArgumentException( "maxBins < 2");
+    this.resolution= resolution;
+    this.maxBins= maxBins;
+    allocate( INITIAL_CAPACITY);
+  }
+
+  /**
+   * Gets the width of a bin, which is the resolution specified on creation,
+   * doubled for each coarsening.
+   */
+  public float getResolution()
+  {
+    return (float) getBinWidth();
+  }
+
+  /**
+   * Gets the maximum number of bins.
+   */
+  public int getMaxBins()
+  {
+    return maxBins;
+  }
+
+  /**
+   * Gets the total number of values added.
+   */
+  public long getTotalCount()
+  {
+    return totalCount;
+  }
+
+  /**
+   * Gets the number of bins holding values.
+   */
+  public int getBinCount()
+  {
+    return size;
+  }
+
+  /**
+   * Adds a value.
+   */
+  public void add( float value)
+  {
+    if (Float.isNaN( value) || Float.isInfinite( value))
+      throw new IllegalArgumentException( "not a finite value: " + value);
+    add( binOf( value), 1, value, value, value);
+    totalCount++;
+  }
+
+  /**
+   * Adds the values in the specified range.
+   *
+   * @param offset
+   *        the index of the first value to add
+   * @param length
+   *        the number of values to add
+   */
+  public void add( float[] values, int offset, int length)
+  {
+    for (int i= offset, end= offset + length; i < end; i++) {
+      add( values[i]);
+    }
+  }
+
+  /**
+   * Adds the values of the specified histogram. Merging is associative and
+   * commutative, apart from rounding of the sums.
+   *
+   * @param other
+   *        a histogram of the same resolution, left unchanged
+   */
+  public void merge( SpeedHistogram other)
+  {
+    if (other.resolution != resolution)
+      throw new IllegalArgumentException( "resolution differs: "
+        + other.resolution + " != " + resolution);
+    while (coarsening < other.coarsening) {
+      coarsen();
+    }
+    for (int slot= 0; slot < other.counts.length; slot++) {
+      if (other.counts[slot] != 0) {
+        // adding may coarsen the bins further
+        add( other.bins[slot] >> coarsening - other.coarsening,
+          other.counts[slot], other.sums[slot], other.minima[slot],
+          other.maxima[slot]);
+      }
+    }
+    totalCount= Math.addExact( totalCount, other.totalCount);
+  }
+
+  /**
+   * Gets the slots of the bins holding values, ordered by the values.
+   */
+  int[] getSortedSlots()
+  {
+    final long[] sorted= new long[size];
+    for (int slot= 0, i= 0; i < size; slot++) {
+      if (counts[slot] != 0)
+        sorted[i++]= bins[slot];
+    }
+    Arrays.sort( sorted);
+    final int[] result= new int[size];
+    for (int i= 0; i < size; i++) {
+      result[i]= find( sorted[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Gets the number of values in the bin at the specified slot.
+   *
+   * @param slot
+   *        a slot as returned by {@link #getSortedSlots()}
+   */
+  long getCount( int slot)
+  {
+    return counts[slot];
+  }
+
+  /**
+   * Gets the sum of the values in the bin at the specified slot.
+   */
+  double getSum( int slot)
+  {
+    return sums[slot];
+  }
+
+  /**
+   * Gets the minimum value in the bin at the specified slot.
+   */
+  float getMinimum( int slot)
+  {
+    return minima[slot];
+  }
+
+  /**
+   * Gets the maximum value in the bin at the specified slot.
+   */
+  float getMaximum( int slot)
+  {
+    return maxima[slot];
+  }
+
+  /**
+   * Gets the width of a bin at the current coarsening.
+   */
+  private double getBinWidth()
+  {
+    return Math.scalb( (double) resolution, coarsening);
+  }
+
+  /**
+   * Gets the number of the bin of a value at the current coarsening: the
+   * number at the initial resolution, halved (rounding down) for each
+   * coarsening. So the numbers stay consistent even for values whose number
+   * at the initial resolution exceeds the range of a {@code long}.
+   */
+  private long binOf( float value)
+  {
+    return (long) Math.floor( value / (double) resolution) >> coarsening;
+  }
+
+  /**
+   * Adds values to a bin, coarsening the bins if there would be too many.
+   */
+  private void add( long bin, long count, double sum, float min, float max)
+  {
+    final int slotMask= counts.length - 1;
+    int slot= hash( bin) & slotMask;
+    while (counts[slot] != 0 && bins[slot] != bin) {
+      slot= (slot + 1) & slotMask;
+    }
+    if (counts[slot] == 0) {
+      if (size == maxBins) {
+        coarsen();
+        add( bin >> 1, count, sum, min, max);
+        return;
+      }
+      bins[slot]= bin;
+      minima[slot]= min;
+      maxima[slot]= max;
+      size++;
+    } else {
+      minima[slot]= Math.min( minima[slot], min);
+      maxima[slot]= Math.max( maxima[slot], max);
+    }
+    counts[slot]= Math.addExact( counts[slot], count);
+    sums[slot]+= sum;
+    if (size > counts.length >> 1)
+      rehash( counts.length << 1, 0);
+  }
+
+  /**
+   * Gets the slot of the specified bin, which must hold values.
+   */
+  private int find( long bin)
+  {
+    final int slotMask= counts.length - 1;
+    int slot= hash( bin) & slotMask;
+    while (bins[slot] != bin) {
+      slot= (slot + 1) & slotMask;
+    }
+    return slot;
+  }
+
+  /**
+   * Doubles the width of the bins, joining each pair of neighboring bins.
+   */
+  private void coarsen()
+  {
+    coarsening++;
+    rehash( counts.length, 1);
+  }
+
+  /**
+   * Re-inserts the bins into a table of the specified number of slots.
+   *
+   * @param shift
+   *        the number of bits to shift the numbers of the bins right by
+   */
+  private void rehash( int capacity, int shift)
+  {
+    final long[] oldBins= bins;
+    final long[] oldCounts= counts;
+    final double[] oldSums= sums;
+    final float[] oldMinima= minima;
+    final float[] oldMaxima= maxima;
+    allocate( capacity);
+    for (int i= 0; i < oldCounts.length; i++) {
+      if (oldCounts[i] != 0) {
+        add( oldBins[i] >> shift, oldCounts[i], oldSums[i], oldMinima[i],
+          oldMaxima[i]);
+      }
+    }
+  }
+
+  /**
+   * Replaces the table by an empty one.
+   */
+  private void allocate( int capacity)
+  {
+    bins= new long[capacity];
+    counts= new long[capacity];
+    sums= new double[capacity];
+    minima= new float[capacity];
+    maxima= new float[capacity];
+    size= 0;
+  }
+
+  /**
+   * Spreads the bits of the number of a bin over an {@code int}.
+   */
+  private static int hash( long bin)
+  {
+    final long h= bin * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /**
+   * Writes the fields, then the number of bins and for each bin its number,
+   * count, sum, minimum and maximum.
+   *
+   * @serialData the bins holding values, in no particular order
+   */
+  private void writeObject( ObjectOutputStream out) throws IOException
+  {
+    out.defaultWriteObject();
+    out.writeInt( size);
+    for (int slot= 0; slot < counts.length; slot++) {
+      if (counts[slot] != 0) {
+        out.writeLong( bins[slot]);
+        out.writeLong( counts[slot]);
+        out.writeDouble( sums[slot]);
+        out.writeFloat( minima[slot]);
+        out.writeFloat( maxima[slot]);
+      }
+    }
+  }
+
+  /**
+   * Reads a histogram written by {@link #writeObject(ObjectOutputStream)},
+   * checking that the bins are consistent before any of them is used.
+   */
+  private void readObject( ObjectInputStream in) throws IOException,
+    ClassNotFoundException
+  {
+    in.defaultReadObject();
+    if ( !(resolution > 0) || Float.isInfinite( resolution))
+      throw new InvalidObjectException( "resolution not positive");
+    if (maxBins < 2)
+      throw new InvalidObjectException( "maxBins < 2");
+    // after 63 coarsenings, at most two bins are left
+    if (coarsening < 0 || coarsening > 63)
+      throw new InvalidObjectException( "coarsening out of range: "
+        + coarsening);
+    final int binCount= in.readInt();
+    if (binCount < 0 || binCount > maxBins)
+      throw new InvalidObjectException( "number of bins out of range: "
+        + binCount);
+    allocate( INITIAL_CAPACITY);
+    long total= 0;
+    for (int i= 0; i < binCount; i++) {
+      final long bin= in.readLong();
+      final long count= in.readLong();
+      final double sum= in.readDouble();
+      final float min= in.readFloat();
+      final float max= in.readFloat();
+      if (count < 1)
+        throw new InvalidObjectException( "count < 1: " + count);
+      if (Float.isInfinite( min) || Float.isInfinite( max) || !(min <= max)
+        || binOf( min) != bin || binOf( max) != bin)
+        throw new InvalidObjectException( "bounds do not fit bin " + bin);
+      if (Double.isNaN( sum) || Double.isInfinite( sum))
+        throw new InvalidObjectException( "sum not finite in bin " + bin);
+      final int sizeBefore= size;
+      add( bin, count, sum, min, max);
+      if (size == sizeBefore)
+        throw new InvalidObjectException( "duplicate bin " + bin);
+      try {
+        total= Math.addExact( total, count);
+      } catch (ArithmeticException ex) {
+        throw new InvalidObjectException( "total count overflows");
+      }
+    }
+    if (total != totalCount)
+      throw new InvalidObjectException( "total count " + totalCount
+        + " != sum of counts " + total);
+  }
+
+  @Override
+  public String toString()
+  {
+    return getClass().getSimpleName() + ", resolution=" + getResolution()
+      + ", count=" + totalCount + ", bins=" + size;
+  }
+}
@@ -0,0 +1,123 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Additional criteria to end a median cut before the desired number of
+ * quantization levels is reached, for example to bound the latency of a run.
+ * A run checks the criteria before each split; so it yields fewer
+ * representative points, but never more. By default, no criterion is set.<br>
+ * The criteria may be shared by any number of runs, but must not be changed
+ * while a run uses them.
+ *
+ * @author Martin Weber
+ * @see MedianCut#medianCut(DataPoint[], int, StopCriteria)
+ */
+public class StopCriteria
+{
+  /** the time a run may take, in nanoseconds, or {@code Long.MAX_VALUE} */
+  private long timeLimit= Long.MAX_VALUE;
+
+  /** the number of points a run may process, or {@code Long.MAX_VALUE} */
+  private long maxProcessedPoints= Long.MAX_VALUE;
+
+  /** the length of the longest side at which clusters are tight enough */
+  private int tolerance;
+
+  /**
+   * Sets the time a run may take. No more clusters are split once it is
+   * exceeded.
+   *
+   * @param duration
+   *        the time, {@code Long.MAX_VALUE} for no limit
+   * @param unit
+   *        the unit of {@code duration}
+   */
+  public void setTimeLimit( long duration, TimeUnit unit)
+  {
+    timeLimit=
+      duration == Long.MAX_VALUE ? Long.MAX_VALUE : unit.toNanos( duration);
+  }
+
+  /**
+   * Gets the time a run may take.
+   *
+   * @return the time in nanoseconds, {@code Long.MAX_VALUE} for no limit
+   */
+  public long getTimeLimit()
+  {
+    return timeLimit;
+  }
+
+  /**
+   * Sets the number of points a run may process. Shrinking the initial
+   * cluster processes all input points, splitting a cluster processes its
+   * points. No cluster is split whose points would exceed that number.
+   *
+   * @param maxProcessedPoints
+   *        the number of points, {@code Long.MAX_VALUE} for no limit
+   */
+  public void setMaxProcessedPoints( long maxProcessedPoints)
+  {
+    this.maxProcessedPoints= maxProcessedPoints;
+  }
+
+  /**
+   * Gets the number of points a run may process.
+   */
+  public long getMaxProcessedPoints()
+  {
+    return maxProcessedPoints;
+  }
+
+  /**
+   * Sets the error tolerance. A run ends once the longest side of the
+   * cluster to split next is shorter than the tolerance. With the default
+   * {@link PriorityPolicy}, that is the cluster with the longest side, so
+   * every cluster is tight enough then.
+   *
+   * @param tolerance
+   *        the length of a side, {@code 0} for none
+   */
+  public void setTolerance( int tolerance)
+  {
+    this.tolerance= tolerance;
+  }
+
+  /**
+   * Gets the error tolerance.
+   */
+  public int getTolerance()
+  {
+    return tolerance;
+  }
+
+  /**
+   * Checks the criteria before the cluster with the longest side is split.
+   *
+   * @param longestSide
+   *        the length of the longest side of the cluster to split
+   * @param processedPoints
+   *        the number of points processed, including the points of the
+   *        cluster to split
+   * @param elapsedNanos
+   *        the time the run took so far
+   * @return the criterion that ends the run or {@code null} to split the
+   *         cluster
+   */
+  MedianCutResult.StopReason check( int longestSide, long processedPoints,
+    long elapsedNanos)
+  {
+    if (longestSide < tolerance)
+      return MedianCutResult.StopReason.TOLERANCE;
+    if (processedPoints > maxProcessedPoints)
+      return MedianCutResult.StopReason.MAX_PROCESSED_POINTS;
+    if (elapsedNanos >= timeLimit)
+      return MedianCutResult.StopReason.DEADLINE;
+    return null;
+  }
+}
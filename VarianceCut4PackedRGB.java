@@ -0,0 +1,377 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * Variance-minimizing alternative to {@link MedianCut4PackedRGB}, based on
+ * the color quantizer of Xiaolin Wu (Graphics Gems II).<br>
+ * The pixels are counted once into a grid of reduced precision, and the
+ * moments of the colors in each grid cell (count and sum of each channel) are
+ * cumulated into 3D tables. Then the moments of any box of cells are computed
+ * in constant time, so the cost of finding the best cut of a box depends on
+ * the size of the grid rather than on the number of pixels. Of all boxes, the
+ * one whose best cut reduces the squared error the most is split next.<br>
+ * Pixels are packed into an {@code int} as {@code 0xRRGGBB}; the alpha byte
+ * is ignored. Unlike {@link MedianCut4PackedRGB}, channels are interpreted as
+ * unsigned values.
+ *
+ * @author Martin Weber
+ */
+public class VarianceCut4PackedRGB
+{
+  /** number of significant bits of each channel that select a grid cell */
+  private final int bitsPerChannel;
+
+  /**
+   * number of cells along each axis of the grid, including a leading cell
+   * that stays empty, so sums of boxes starting at zero need no special case
+   */
+  private final int side;
+
+  /**
+   * Creates a new instance that uses a grid of 32 cells along each axis.
+   */
+  public VarianceCut4PackedRGB()
+  {
+    this( 5);
+  }
+
+  /**
+   * Creates a new instance that uses a grid with the specified number of
+   * cells along each axis.
+   *
+   * @param bitsPerChannel
+   *        the number of the most significant bits of each channel that select
+   *        a grid cell, from 1 to 7. Each step up improves the precision of
+   *        the cuts, but takes eight times the memory and time to cumulate.
+   */
+  public VarianceCut4PackedRGB( int bitsPerChannel)
+  {
+    if (bitsPerChannel < 1 || bitsPerChannel > 7)
+      throw new IllegalArgumentException( "bitsPerChannel out of range: "
+        + bitsPerChannel);
+    this.bitsPerChannel= bitsPerChannel;
+    this.side= (1 << bitsPerChannel) + 1;
+  }
+
+  /**
+   * Determines the most representative values on the range of the specifed
+   * input data for the desired number of quantization level. The order of
+   * the pixels is left unchanged.
+   *
+   * @param pixels
+   *        the pixels, packed as {@code 0xRRGGBB}. The alpha byte is ignored.
+   * @return the packed representative points ({@code 0xRRGGBB}), at most one
+   *         for each desired quantization level.
+   */
+  public int[] cut( int[] pixels, int desiredQuantizationLevels)
+  {
+    Moments moments= new Moments();
+    for (int pixel : pixels) {
+      moments.add( pixel, 1);
+    }
+    return cut( moments, desiredQuantizationLevels);
+  }
+
+  /**
+   * Determines the most representative values on the range of the colors
+   * collected in the specified histogram for the desired number of
+   * quantization level.
+   *
+   * @return the packed representative points ({@code 0xRRGGBB}), at most one
+   *         for each desired quantization level.
+   */
+  public int[] cut( ColorHistogram histogram, int desiredQuantizationLevels)
+  {
+    final int[] colors= histogram.getColors();
+    final long[] counts= histogram.getCounts();
+    Moments moments= new Moments();
+    for (int i= 0; i < colors.length; i++) {
+      moments.add( colors[i], counts[i]);
+    }
+    return cut( moments, desiredQuantizationLevels);
+  }
+
+  /**
+   * Determines the most representative values of the colors counted in the
+   * specified moments.
+   */
+  private int[] cut( Moments moments, int desiredQuantizationLevels)
+  {
+    moments.cumulate();
+    final int last= side - 1;
+    Box block1=
+      new Box( moments, new int[] { 0, 0, 0 }, new int[] { last, last, last });
+    if (block1.weight == 0)
+      return new int[0];
+    /**
+     * a queue with the Box whose cut reduces the error most to have maximum
+     * priority
+     */
+    PriorityQueue<Box> blockQueue= new PriorityQueue<Box>();
+    List<Box> result= new ArrayList<Box>();
+    blockQueue.offer( block1);
+    // While the number of boxes is less than desired number...
+    while (blockQueue.size() + result.size() < desiredQuantizationLevels
+      && !blockQueue.isEmpty()) {
+      Box box= blockQueue.poll();
+      if (box.cutDimension < 0) {
+        // a single cell or a single color, cannot be cut
+        result.add( box);
+        continue;
+      }
+      Box box2= box.cut();
+      blockQueue.offer( box);
+      blockQueue.offer( box2);
+    }
+    while ( !blockQueue.isEmpty()) {
+      result.add( blockQueue.poll());
+    }
+    int[] palette= new int[result.size()];
+    for (int i= 0; i < palette.length; i++) {
+      palette[i]= result.get( i).getRepresentativePoint();
+    }
+    return palette;
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // inner classes
+  // //////////////////////////////////////////////////////////////////
+  /**
+   * The moments of the colors in each cell of the grid: the number of pixels
+   * and the sum of each channel. After {@link #cumulate()}, each cell holds
+   * the moments of all cells with lower or equal coordinates.
+   *
+   * @author Martin Weber
+   */
+  private class Moments
+  {
+    private final long[] weight;
+
+    private final long[] sumR;
+
+    private final long[] sumG;
+
+    private final long[] sumB;
+
+    Moments()
+    {
+      final int cells= side * side * side;
+      weight= new long[cells];
+      sumR= new long[cells];
+      sumG= new long[cells];
+      sumB= new long[cells];
+    }
+
+    /**
+     * Gets the index of the cell at the specified coordinates.
+     */
+    int index( int r, int g, int b)
+    {
+      return (r * side + g) * side + b;
+    }
+
+    /**
+     * Counts a color.
+     *
+     * @param pixel
+     *        the color, packed as {@code 0xRRGGBB}
+     * @param count
+     *        the number of occurrences of the color
+     */
+    void add( int pixel, long count)
+    {
+      final int r= pixel >> 16 & 0xFF, g= pixel >> 8 & 0xFF, b= pixel & 0xFF;
+      final int shift= 8 - bitsPerChannel;
+      final int cell=
+        index( (r >> shift) + 1, (g >> shift) + 1, (b >> shift) + 1);
+      weight[cell]+= count;
+      sumR[cell]+= r * count;
+      sumG[cell]+= g * count;
+      sumB[cell]+= b * count;
+    }
+
+    /**
+     * Cumulates the moments along each axis.
+     */
+    void cumulate()
+    {
+      final int[] strides= { side * side, side, 1 };
+      for (int stride : strides) {
+        for (int cell= 0; cell < weight.length; cell++) {
+          // skip the leading cell along the axis
+          if (cell / stride % side == 0)
+            continue;
+          weight[cell]+= weight[cell - stride];
+          sumR[cell]+= sumR[cell - stride];
+          sumG[cell]+= sumG[cell - stride];
+          sumB[cell]+= sumB[cell - stride];
+        }
+      }
+    }
+
+    /**
+     * Gets the sum of a cumulated moment over a box, with the lower bounds
+     * exclusive and the upper bounds inclusive.
+     */
+    long volume( long[] moment, int r0, int r1, int g0, int g1, int b0,
+      int b1)
+    {
+      return moment[index( r1, g1, b1)] - moment[index( r1, g1, b0)]
+        - moment[index( r1, g0, b1)] + moment[index( r1, g0, b0)]
+        - moment[index( r0, g1, b1)] + moment[index( r0, g1, b0)]
+        + moment[index( r0, g0, b1)] - moment[index( r0, g0, b0)];
+    }
+  }
+
+  /**
+   * A box of grid cells, containing the colors counted into them. The lower
+   * bounds are exclusive, the upper bounds inclusive. When created, the best
+   * cut of the box is determined.
+   *
+   * @author Martin Weber
+   */
+  private class Box implements Comparable<Box>
+  {
+    private final Moments moments;
+
+    /** the lower bound of each channel, exclusive */
+    private final int[] lower= new int[3];
+
+    /** the upper bound of each channel, inclusive */
+    private final int[] upper= new int[3];
+
+    /** the moments of the colors in the box */
+    private long weight;
+
+    private long sumR;
+
+    private long sumG;
+
+    private long sumB;
+
+    /** the channel to cut along, or {@code -1} if the box cannot be cut */
+    private int cutDimension;
+
+    /** the upper bound of the lower part of the cut */
+    private int cutPosition;
+
+    /** the reduction of the squared error of the best cut */
+    private double gain;
+
+    /**
+     * @param lower
+     *        the lower bound of each channel, exclusive
+     * @param upper
+     *        the upper bound of each channel, inclusive
+     */
+    Box( Moments moments, int[] lower, int[] upper)
+    {
+      this.moments= moments;
+      System.arraycopy( lower, 0, this.lower, 0, 3);
+      System.arraycopy( upper, 0, this.upper, 0, 3);
+      update();
+    }
+
+    /**
+     * Computes the moments and the best cut of this box.
+     */
+    private void update()
+    {
+      weight= volume( moments.weight);
+      sumR= volume( moments.sumR);
+      sumG= volume( moments.sumG);
+      sumB= volume( moments.sumB);
+      cutDimension= -1;
+      gain= 0;
+      final double whole= score( weight, sumR, sumG, sumB);
+      for (int dim= 0; dim < 3; dim++) {
+        final int upperBound= upper[dim];
+        for (int pos= lower[dim] + 1; pos < upperBound; pos++) {
+          upper[dim]= pos;
+          final long w= volume( moments.weight);
+          if (w == 0 || w == weight) {
+            continue;
+          }
+          final long r= volume( moments.sumR);
+          final long g= volume( moments.sumG);
+          final long b= volume( moments.sumB);
+          final double reduction=
+            score( w, r, g, b)
+              + score( weight - w, sumR - r, sumG - g, sumB - b) - whole;
+          if (reduction > gain) {
+            gain= reduction;
+            cutDimension= dim;
+            cutPosition= pos;
+          }
+        }
+        upper[dim]= upperBound;
+      }
+    }
+
+    /**
+     * Gets the sum of a cumulated moment over this box.
+     */
+    private long volume( long[] moment)
+    {
+      return moments.volume( moment, lower[0], upper[0], lower[1],
+        upper[1], lower[2], upper[2]);
+    }
+
+    /**
+     * Cuts this box in two at its best cut. This box keeps the lower part.
+     *
+     * @return a newly created box with the upper part
+     */
+    public Box cut()
+    {
+      final int[] lower2= lower.clone();
+      lower2[cutDimension]= cutPosition;
+      Box box2= new Box( moments, lower2, upper);
+      this.upper[cutDimension]= cutPosition;
+      this.update();
+      return box2;
+    }
+
+    /**
+     * Finds a representative point for this box. Implemented to compute the
+     * arithmetic mean (average) of all colors in the box.
+     *
+     * @return a representative point for this box, packed as
+     *         {@code 0xRRGGBB}
+     */
+    public int getRepresentativePoint()
+    {
+      return (int) ((2 * sumR + weight) / (2 * weight)) << 16
+        | (int) ((2 * sumG + weight) / (2 * weight)) << 8
+        | (int) ((2 * sumB + weight) / (2 * weight));
+    }
+
+    /**
+     * {@inheritDoc} Compares two boxes by the reduction of the squared error
+     * of their best cut.
+     */
+    public int compareTo( Box rhs)
+    {
+      return Double.compare( rhs.gain, this.gain);
+    }
+  }
+
+  /**
+   * Gets the squared length of the sum of the colors of a box divided by its
+   * weight. The squared error of a box is the sum of the squared colors minus
+   * this score, so a cut reduces the error by the amount it increases the
+   * sum of the scores.
+   */
+  private static double score( long weight, long sumR, long sumG, long sumB)
+  {
+    final double r= sumR, g= sumG, b= sumB;
+    return (r * r + g * g + b * b) / weight;
+  }
+}
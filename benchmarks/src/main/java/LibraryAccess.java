@@ -0,0 +1,107 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import mediancut.benchmarks.Library;
+
+
+/**
+ * Gives the benchmarks access to the library in the unnamed package.
+ *
+ * @author Martin Weber
+ */
+public class LibraryAccess extends Library
+{
+  @Override
+  public Object[] toDataPoints( int[] pixels)
+  {
+    DataPoint3Byte[] points= new DataPoint3Byte[pixels.length];
+    for (int i= 0; i < pixels.length; i++) {
+      final int pixel= pixels[i];
+      points[i]=
+        new DataPoint3Byte( new byte[] { (byte) (pixel >> 16),
+          (byte) (pixel >> 8), (byte) pixel });
+    }
+    return points;
+  }
+
+  @Override
+  public Object medianCut( Object[] points, int levels)
+  {
+    return new MedianCut<DataPoint3Byte>().medianCut(
+      (DataPoint3Byte[]) points, levels);
+  }
+
+  @Override
+  public Object medianCutParallel( Object[] points, int levels)
+  {
+    return new MedianCut<DataPoint3Byte>().medianCut(
+      (DataPoint3Byte[]) points, levels, ForkJoinPool.commonPool());
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public int[] toPalette( Object representativePoints)
+  {
+    return PaletteMap.pack( (List<DataPoint3Byte>) representativePoints);
+  }
+
+  @Override
+  public int[] medianCutPacked( int[] pixels, int levels)
+  {
+    return new MedianCut4PackedRGB().medianCut( pixels, levels);
+  }
+
+  @Override
+  public int[] medianCutHistogram( int[] pixels, int levels)
+  {
+    ColorHistogram histogram= new ColorHistogram();
+    histogram.add( pixels, 0, pixels.length);
+    return new MedianCut4PackedRGB().medianCut( histogram, levels);
+  }
+
+  @Override
+  public double meanSquaredError( int[] pixels, int[] palette)
+  {
+    return SampledMedianCut4PackedRGB.meanSquaredError( pixels, palette);
+  }
+
+  @Override
+  public Object medianCutSpeeds( List<Float> speeds, int levels)
+  {
+    return new MedianCut4BoatSpeed().medianCut( speeds, levels);
+  }
+
+  @Override
+  public Object medianCutSpeeds( float[] speeds, int levels)
+  {
+    return new MedianCut4BoatSpeed().medianCut( speeds, 0, speeds.length,
+      levels);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public float[] getRepresentativePoints( Object clusters)
+  {
+    if (clusters instanceof MedianCut4BoatSpeed.Clusters) {
+      MedianCut4BoatSpeed.Clusters flat=
+        (MedianCut4BoatSpeed.Clusters) clusters;
+      float[] result= new float[flat.size()];
+      for (int i= 0; i < result.length; i++) {
+        result[i]= flat.getMean( i);
+      }
+      return result;
+    }
+    List<MedianCut4BoatSpeed.Cluster> list=
+      (List<MedianCut4BoatSpeed.Cluster>) clusters;
+    float[] result= new float[list.size()];
+    for (int i= 0; i < result.length; i++) {
+      result[i]= list.get( i).getRepresentativePoint().floatValue();
+    }
+    return result;
+  }
+}
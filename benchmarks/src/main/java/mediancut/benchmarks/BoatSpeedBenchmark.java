@@ -0,0 +1,121 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+package mediancut.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+
+
+/**
+ * Benchmarks {@code MedianCut4BoatSpeed} on boat speed telemetry: moored,
+ * cruising and planing. The boxed variant leaves its input unchanged; the
+ * primitive one sorts it, so each invocation works on a fresh copy, made
+ * outside of the measurement into a preallocated array. After each
+ * iteration, the mean squared error of the speeds quantized to the last
+ * representative points computed is reported, see {@link Quality}.
+ *
+ * @author Martin Weber
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 3, time= 2)
+@Measurement(iterations= 5, time= 2)
+@Fork(1)
+public class BoatSpeedBenchmark
+{
+  @Param({ "10000", "100000", "1000000" })
+  public int size;
+
+  @Param({ "4", "16" })
+  public int levels;
+
+  private Library library;
+
+  /** the speeds in knots */
+  private float[] speeds;
+
+  private List<Float> boxed;
+
+  /** the copy of the input the primitive median cut works on */
+  private float[] work;
+
+  /** the clusters computed last */
+  private Object clusters;
+
+  @Setup(Level.Trial)
+  public void createInput()
+  {
+    library= Library.get();
+    Random random= new Random( Distribution.SEED);
+    speeds= new float[size];
+    boxed= new ArrayList<Float>( size);
+    for (int i= 0; i < size; i++) {
+      final int mode= random.nextInt( 5);
+      final double speed;
+      if (mode < 2)
+        speed= Math.abs( 0.3 * random.nextGaussian());
+      else if (mode < 4)
+        speed= 6 + 1.5 * random.nextGaussian();
+      else
+        speed= 12 + 3 * random.nextGaussian();
+      speeds[i]= (float) Math.max( 0, speed);
+      boxed.add( Float.valueOf( speeds[i]));
+    }
+    work= new float[size];
+  }
+
+  @Setup(Level.Invocation)
+  public void copyInput()
+  {
+    System.arraycopy( speeds, 0, work, 0, speeds.length);
+  }
+
+  @Benchmark
+  public Object boxed()
+  {
+    return clusters= library.medianCutSpeeds( boxed, levels);
+  }
+
+  @Benchmark
+  public Object primitive()
+  {
+    return clusters= library.medianCutSpeeds( work, levels);
+  }
+
+  @TearDown(Level.Iteration)
+  public void measureError( Quality quality, IterationParams params)
+  {
+    if (clusters == null)
+      return;
+    final float[] representatives= library.getRepresentativePoints( clusters);
+    double sum= 0;
+    for (float speed : speeds) {
+      double min= Double.MAX_VALUE;
+      for (float representative : representatives) {
+        final double diff= speed - representative;
+        min= Math.min( min, diff * diff);
+      }
+      sum+= min;
+    }
+    quality.setError( sum / speeds.length, params);
+  }
+}
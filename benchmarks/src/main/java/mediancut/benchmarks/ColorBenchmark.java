@@ -0,0 +1,69 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+package mediancut.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+
+
+/**
+ * The parameters and the input of the benchmarks of median cuts of colors.
+ * After each iteration, the mean squared error of the input quantized to the
+ * last palette computed is reported as a measure of the quality, see
+ * {@link Quality}.
+ *
+ * @author Martin Weber
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 3, time= 2)
+@Measurement(iterations= 5, time= 2)
+@Fork(1)
+public abstract class ColorBenchmark
+{
+  @Param({ "PHOTO", "FLAT" })
+  public Distribution distribution;
+
+  @Param({ "10000", "100000", "1000000" })
+  public int size;
+
+  @Param({ "16", "256" })
+  public int levels;
+
+  protected Library library;
+
+  /** the input pixels, packed as {@code 0xRRGGBB} */
+  protected int[] pixels;
+
+  /** the palette computed last, packed as {@code 0xRRGGBB} */
+  protected int[] palette;
+
+  @Setup(Level.Trial)
+  public void createInput()
+  {
+    library= Library.get();
+    pixels= distribution.createPixels( size);
+  }
+
+  @TearDown(Level.Iteration)
+  public void measureError( Quality quality, IterationParams params)
+  {
+    if (palette != null)
+      quality.setError( library.meanSquaredError( pixels, palette), params);
+  }
+}
@@ -0,0 +1,57 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+package mediancut.benchmarks;
+
+import java.util.Random;
+
+
+/**
+ * The distribution of the colors of the benchmark input.
+ *
+ * @author Martin Weber
+ */
+public enum Distribution
+{
+  /** smooth gradients with some noise, like a photograph */
+  PHOTO,
+  /** a few flat colors with some stray pixels, like a graphic */
+  FLAT;
+
+  /** seed for the input data, so runs are comparable */
+  static final long SEED= 4711L;
+
+  /**
+   * Creates RGB pixels, packed as {@code 0xRRGGBB}.
+   */
+  int[] createPixels( int size)
+  {
+    Random random= new Random( SEED);
+    int[] pixels= new int[size];
+    final int width= Math.max( 1, (int) Math.sqrt( size));
+    final int height= (size + width - 1) / width;
+    for (int i= 0; i < size; i++) {
+      final int x= i % width;
+      final int y= i / width;
+      if (this == PHOTO) {
+        final int r= 255 * x / width + (int) (8 * random.nextGaussian());
+        final int g= 255 * y / height + (int) (8 * random.nextGaussian());
+        final int b=
+          (int) (128 + 100 * Math.sin( (x + y) * 0.01))
+            + (int) (8 * random.nextGaussian());
+        pixels[i]= clamp( r) << 16 | clamp( g) << 8 | clamp( b);
+      } else {
+        final int block= (x * 4 / width) + 4 * (y * 3 / height);
+        pixels[i]=
+          random.nextInt( 50) == 0 ? random.nextInt( 1 << 24)
+            : block * 0x151B1F & 0xFFFFFF;
+      }
+    }
+    return pixels;
+  }
+
+  private static int clamp( int value)
+  {
+    return value < 0 ? 0 : value > 0xFF ? 0xFF : value;
+  }
+}
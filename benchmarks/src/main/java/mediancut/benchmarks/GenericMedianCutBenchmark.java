@@ -0,0 +1,54 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+package mediancut.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Benchmarks {@code MedianCut} on {@code DataPoint3Byte}s, serial and in the
+ * common pool. The median cut reorders its input, so each invocation works
+ * on a fresh copy, made outside of the measurement into a preallocated array.
+ *
+ * @author Martin Weber
+ */
+@State(Scope.Thread)
+public class GenericMedianCutBenchmark extends ColorBenchmark
+{
+  /** the input as {@code DataPoint3Byte}s */
+  private Object[] points;
+
+  /** the copy of the input the median cut works on */
+  private Object[] work;
+
+  @Setup(Level.Trial)
+  public void createPoints()
+  {
+    points= library.toDataPoints( pixels);
+    work= points.clone();
+  }
+
+  @Setup(Level.Invocation)
+  public void copyInput()
+  {
+    System.arraycopy( points, 0, work, 0, points.length);
+  }
+
+  @Benchmark
+  public int[] serial()
+  {
+    return palette= library.toPalette( library.medianCut( work, levels));
+  }
+
+  @Benchmark
+  public int[] parallel()
+  {
+    return palette=
+      library.toPalette( library.medianCutParallel( work, levels));
+  }
+}
@@ -0,0 +1,97 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+package mediancut.benchmarks;
+
+import java.util.List;
+
+
+/**
+ * The operations of the median cut library that the benchmarks run.<br>
+ * JMH requires benchmarks to be in a named package, but the library lives in
+ * the unnamed package, which classes of a named package cannot refer to. So
+ * the benchmarks reach the library through this class, implemented by
+ * {@code LibraryAccess} in the unnamed package. It is looked up once per
+ * trial, outside of the measurement.
+ *
+ * @author Martin Weber
+ */
+public abstract class Library
+{
+  /**
+   * Gets the implementation in the unnamed package.
+   */
+  public static Library get()
+  {
+    try {
+      return (Library) Class.forName( "LibraryAccess").getDeclaredConstructor()
+        .newInstance();
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException( "LibraryAccess not on the class path",
+        ex);
+    }
+  }
+
+  /**
+   * Converts RGB pixels, packed as {@code 0xRRGGBB}, to
+   * {@code DataPoint3Byte}s.
+   */
+  public abstract Object[] toDataPoints( int[] pixels);
+
+  /**
+   * Runs {@code MedianCut} on {@code DataPoint3Byte}s.
+   *
+   * @return the representative points
+   */
+  public abstract Object medianCut( Object[] points, int levels);
+
+  /**
+   * Runs {@code MedianCut} on {@code DataPoint3Byte}s in the common pool.
+   *
+   * @return the representative points
+   */
+  public abstract Object medianCutParallel( Object[] points, int levels);
+
+  /**
+   * Packs the representative points returned by {@link #medianCut} as
+   * {@code 0xRRGGBB}.
+   */
+  public abstract int[] toPalette( Object representativePoints);
+
+  /**
+   * Runs {@code MedianCut4PackedRGB} on packed pixels.
+   */
+  public abstract int[] medianCutPacked( int[] pixels, int levels);
+
+  /**
+   * Collects the pixels into a {@code ColorHistogram} and runs
+   * {@code MedianCut4PackedRGB} on it.
+   */
+  public abstract int[] medianCutHistogram( int[] pixels, int levels);
+
+  /**
+   * Gets the mean squared error of the pixels quantized to the nearest color
+   * of the palette, summed over the channels.
+   */
+  public abstract double meanSquaredError( int[] pixels, int[] palette);
+
+  /**
+   * Runs {@code MedianCut4BoatSpeed} on boxed speeds.
+   *
+   * @return the clusters
+   */
+  public abstract Object medianCutSpeeds( List<Float> speeds, int levels);
+
+  /**
+   * Runs {@code MedianCut4BoatSpeed} on a primitive array, sorting it.
+   *
+   * @return the clusters
+   */
+  public abstract Object medianCutSpeeds( float[] speeds, int levels);
+
+  /**
+   * Gets the representative points of the clusters returned by
+   * {@link #medianCutSpeeds}.
+   */
+  public abstract float[] getRepresentativePoints( Object clusters);
+}
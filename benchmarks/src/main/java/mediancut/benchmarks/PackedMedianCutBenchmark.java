@@ -0,0 +1,53 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+package mediancut.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Benchmarks {@code MedianCut4PackedRGB} on the pixels and on a histogram of
+ * their distinct colors. The median cut of the pixels reorders them, so each
+ * invocation works on a fresh copy, made outside of the measurement into a
+ * preallocated array.
+ *
+ * @author Martin Weber
+ */
+@State(Scope.Thread)
+public class PackedMedianCutBenchmark extends ColorBenchmark
+{
+  /** the copy of the input the median cut works on */
+  private int[] work;
+
+  @Setup(Level.Trial)
+  public void allocate()
+  {
+    work= new int[pixels.length];
+  }
+
+  @Setup(Level.Invocation)
+  public void copyInput()
+  {
+    System.arraycopy( pixels, 0, work, 0, pixels.length);
+  }
+
+  @Benchmark
+  public int[] pixels()
+  {
+    return palette= library.medianCutPacked( work, levels);
+  }
+
+  /**
+   * Includes building the histogram, which leaves the pixels unchanged.
+   */
+  @Benchmark
+  public int[] histogram()
+  {
+    return palette= library.medianCutHistogram( pixels, levels);
+  }
+}
@@ -0,0 +1,41 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+package mediancut.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.IterationParams;
+
+
+/**
+ * The quality of the results of a benchmark, reported by JMH as a secondary
+ * result next to the throughput, so it shows in the result table and in the
+ * files written with {@code -rf json} or {@code -rf csv}.<br>
+ * JMH sums the values of the iterations, so each iteration reports its share
+ * of the mean, see {@link #setError(double, IterationParams)}.
+ *
+ * @author Martin Weber
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class Quality
+{
+  /**
+   * the mean squared error of the input quantized to the result computed
+   * last, divided by the number of iterations
+   */
+  public double mse;
+
+  /**
+   * Sets the error of the result computed last in the iteration.
+   *
+   * @param mse
+   *        the mean squared error of the input quantized to the result
+   */
+  public void setError( double mse, IterationParams params)
+  {
+    this.mse= mse / params.getCount();
+  }
+}
@@ -0,0 +1,35 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+/**
+ * JMH benchmarks of the median cut implementations, parameterized by the
+ * input size, the number of quantization levels and, for colors, the
+ * distribution of the input. Each reports the throughput and, as the
+ * secondary result {@code mse}, the mean squared error of the quantized
+ * input. Build and run from the top directory with
+ *
+ * <pre>
+ * mvn -B package
+ * java -jar benchmarks/target/benchmarks.jar -prof gc
+ * </pre>
+ *
+ * The gc profiler adds the allocation rate, {@code gc.alloc.rate.norm} being
+ * the bytes allocated per operation. JMH options select and narrow the runs,
+ * for example
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar PackedMedianCutBenchmark \
+ *   -p distribution=PHOTO -p size=1000000 -p levels=256 -prof gc
+ * </pre>
+ *
+ * The inputs are copied in {@code @Setup(Level.Invocation)}, which JMH
+ * excludes from the time but adds some overhead per call, so the smallest
+ * sizes are measured less precisely. The packed benchmarks use the Vector
+ * API kernels if they are built, with <code>mvn -B package -Pvector</code>,
+ * and the forked JVMs run with the incubator module: add
+ * <code>-jvmArgsAppend "--add-modules jdk.incubator.vector"</code> and
+ * compare with <code>-jvmArgsAppend -Dmediancut.vector=false</code>.
+ *
+ * @author Martin Weber
+ */
+package mediancut.benchmarks;
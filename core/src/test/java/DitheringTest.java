@@ -0,0 +1,112 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Checks that error diffusion in parallel yields exactly the indices of the
+ * serial pass.
+ *
+ * @author Martin Weber
+ */
+class DitheringTest
+{
+  private static final int[] WIDTHS= { 1, 2, 3, 31, 33, 64, 257 };
+
+  private static final int[] HEIGHTS= { 1, 2, 5, 40 };
+
+  private static final int[] PALETTE_SIZES= { 1, 2, 16, 256 };
+
+  private static final int[] PARALLELISMS= { 1, 2, 3, 8 };
+
+  @Test
+  void parallelErrorDiffusionEqualsSerial()
+  {
+    final Random random= new Random( 7);
+    for (int parallelism : PARALLELISMS) {
+      final ForkJoinPool pool= new ForkJoinPool( parallelism);
+      try {
+        for (int paletteSize : PALETTE_SIZES) {
+          final Dithering dithering=
+            new Dithering( new PaletteMap( randomPixels( random, paletteSize)));
+          for (int width : WIDTHS) {
+            for (int height : HEIGHTS) {
+              assertSame( dithering, randomPixels( random, width * height),
+                width, height, pool, "width=" + width + ", height=" + height
+                  + ", palette=" + paletteSize + ", parallelism="
+                  + parallelism);
+            }
+          }
+        }
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Runs many rows at the same time, so the rows often wait for each other.
+   */
+  @Test
+  void parallelErrorDiffusionEqualsSerialOnLargeImages()
+  {
+    final Random random= new Random( 11);
+    final ForkJoinPool pool= new ForkJoinPool( 8);
+    try {
+      final Dithering dithering=
+        new Dithering( new PaletteMap( randomPixels( random, 64)));
+      for (int i= 0; i < 5; i++) {
+        final int width= 500 + random.nextInt( 1000);
+        final int height= 200 + random.nextInt( 200);
+        assertSame( dithering, smoothPixels( random, width, height), width,
+          height, pool, "width=" + width + ", height=" + height);
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void assertSame( Dithering dithering, int[] pixels,
+    int width, int height, ForkJoinPool pool, String message)
+  {
+    final byte[] serial= new byte[pixels.length];
+    final byte[] parallel= new byte[pixels.length];
+    dithering.errorDiffusion( pixels, width, height, serial);
+    dithering.errorDiffusion( pixels, width, height, parallel, pool);
+    assertArrayEquals( serial, parallel, message);
+  }
+
+  private static int[] randomPixels( Random random, int length)
+  {
+    final int[] pixels= new int[length];
+    for (int i= 0; i < length; i++) {
+      pixels[i]= random.nextInt();
+    }
+    return pixels;
+  }
+
+  /**
+   * Creates an image of gradients with some noise, whose errors spread far.
+   */
+  private static int[] smoothPixels( Random random, int width, int height)
+  {
+    final int[] pixels= new int[width * height];
+    for (int y= 0; y < height; y++) {
+      for (int x= 0; x < width; x++) {
+        final int r= 255 * x / width;
+        final int g= 255 * y / height;
+        final int b= Math.min( 255, (r + g) / 2 + random.nextInt( 16));
+        pixels[y * width + x]= r << 16 | g << 8 | b;
+      }
+    }
+    return pixels;
+  }
+}
@@ -0,0 +1,140 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Checks that the vector kernels yield the results of the scalar ones. The
+ * tests are skipped unless the vector kernels are built (profile
+ * {@code vector}) and the incubator module is available.
+ *
+ * @author Martin Weber
+ */
+class PixelKernelsTest
+{
+  /** the vector kernels or {@code null} if not available */
+  private static PixelKernels vector;
+
+  /** the number of lanes of the vector kernels */
+  private static int lanes;
+
+  /** the number of pixels added before the lanes are flushed */
+  private static int flushPixels;
+
+  private final PixelKernels scalar= new PixelKernels.Scalar();
+
+  @BeforeAll
+  static void loadVectorKernels() throws Exception
+  {
+    final Class<?> type;
+    try {
+      type= Class.forName( "VectorPixelKernels");
+      vector= (PixelKernels) type.getDeclaredConstructor().newInstance();
+    } catch (ClassNotFoundException ex) {
+      return;
+    } catch (LinkageError err) {
+      return;
+    }
+    final Field species= type.getDeclaredField( "SPECIES");
+    species.setAccessible( true);
+    final Object value= species.get( null);
+    lanes=
+      (Integer) Class.forName( "jdk.incubator.vector.VectorSpecies")
+        .getMethod( "length").invoke( value);
+    final Field interval= type.getDeclaredField( "FLUSH_INTERVAL");
+    interval.setAccessible( true);
+    flushPixels= interval.getInt( null) * lanes;
+  }
+
+  @Test
+  void shortAndUnalignedRanges()
+  {
+    assumeTrue( vector != null, "vector kernels not available");
+    final Random random= new Random( 3);
+    final int[] pixels= randomPixels( random, 64 * lanes + 5);
+    for (int from= 0; from < 2 * lanes + 1; from++) {
+      for (int to= from; to < Math.min( pixels.length, from + 4 * lanes + 3);
+        to++) {
+        assertSame( pixels, from, to, random);
+      }
+    }
+  }
+
+  @Test
+  void randomRanges()
+  {
+    assumeTrue( vector != null, "vector kernels not available");
+    final Random random= new Random( 5);
+    final int[] pixels= randomPixels( random, 1 << 16);
+    for (int i= 0; i < 1000; i++) {
+      final int from= random.nextInt( pixels.length);
+      final int to= from + random.nextInt( pixels.length - from + 1);
+      assertSame( pixels, from, to, random);
+    }
+  }
+
+  /**
+   * Spans more than one flush of the lanes, with the extreme channel values
+   * that make the sums largest.
+   */
+  @Test
+  void rangesLongerThanFlushInterval()
+  {
+    assumeTrue( vector != null, "vector kernels not available");
+    final Random random= new Random( 9);
+    final int[] pixels= new int[2 * flushPixels + 3 * lanes + 1];
+    Arrays.fill( pixels, 0x808080);
+    assertSame( pixels, 1, pixels.length, random);
+    Arrays.fill( pixels, 0x7F7F7F);
+    assertSame( pixels, 0, pixels.length - 1, random);
+    for (int i= 0; i < pixels.length; i++) {
+      pixels[i]= random.nextBoolean() ? 0x808080 : random.nextInt();
+    }
+    assertSame( pixels, lanes - 1, pixels.length, random);
+  }
+
+  /**
+   * Adds the range with both kernels, starting from the same random bounds
+   * at an offset into the arrays, and compares the results.
+   */
+  private void assertSame( int[] pixels, int from, int to, Random random)
+  {
+    final int base= 3;
+    final int[] min= new int[9], max= new int[9];
+    final long[] sum= new long[9];
+    for (int dim= 0; dim < 3; dim++) {
+      min[base + dim]= random.nextInt( 256) - 128;
+      max[base + dim]= random.nextInt( 256) - 128;
+      sum[base + dim]= random.nextInt();
+    }
+    final int[] vectorMin= min.clone(), vectorMax= max.clone();
+    final long[] vectorSum= sum.clone();
+    scalar.addBounds( pixels, from, to, min, max, sum, base);
+    vector.addBounds( pixels, from, to, vectorMin, vectorMax, vectorSum,
+      base);
+    final String message= "from=" + from + ", to=" + to;
+    assertArrayEquals( min, vectorMin, message);
+    assertArrayEquals( max, vectorMax, message);
+    assertArrayEquals( sum, vectorSum, message);
+  }
+
+  private static int[] randomPixels( Random random, int length)
+  {
+    final int[] pixels= new int[length];
+    for (int i= 0; i < length; i++) {
+      pixels[i]= random.nextInt();
+    }
+    return pixels;
+  }
+}
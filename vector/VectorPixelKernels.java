@@ -0,0 +1,117 @@
+// $Header$
+// Copyright © 2008 Martin Weber
+
+
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * {@link PixelKernels} using the Vector API, processing as many pixels at a
+ * time as the preferred vector shape of the CPU holds, for example eight with
+ * AVX2. Requires the incubator module, so compile and run with
+ *
+ * <pre>
+ * --add-modules jdk.incubator.vector
+ * </pre>
+ *
+ * The Maven build compiles it with the profile {@code vector} only.
+ *
+ * @author Martin Weber
+ */
+class VectorPixelKernels extends PixelKernels
+{
+  private static final VectorSpecies<Integer> SPECIES=
+    IntVector.SPECIES_PREFERRED;
+
+  /**
+   * number of vectors summed up in the lanes of an {@code int} vector before
+   * the lanes are added to the {@code long} sums. The lanes are reduced in
+   * {@code int} arithmetic, so the interval covers at most 2<sup>24</sup>
+   * values of at most 128 in magnitude, whatever the number of lanes: neither
+   * a lane nor the reduced sum can overflow.
+   */
+  private static final int FLUSH_INTERVAL= (1 << 24) / SPECIES.length();
+
+  @Override
+  String getName()
+  {
+    return "vector (" + SPECIES.length() + " lanes)";
+  }
+
+  @Override
+  void addBounds( int[] pixels, int from, int to, int[] min, int[] max,
+    long[] sum, int base)
+  {
+    final int lanes= SPECIES.length();
+    final int upperBound= from + (to - from) / lanes * lanes;
+    int i= from;
+    while (i < upperBound) {
+      final int end= (int) Math.min( upperBound, i + (long) FLUSH_INTERVAL
+        * lanes);
+      addBlock( pixels, i, end, min, max, sum, base);
+      i= end;
+    }
+    // the remaining pixels, one at a time
+    for (; i < to; i++) {
+      final int pixel= pixels[i];
+      for (int dim= 0; dim < 3; dim++) {
+        final int value= (byte) (pixel >> (16 - 8 * dim));
+        min[base + dim]= Math.min( min[base + dim], value);
+        max[base + dim]= Math.max( max[base + dim], value);
+        sum[base + dim]+= value;
+      }
+    }
+  }
+
+  /**
+   * Adds a block of whole vectors of pixels, at most {@link #FLUSH_INTERVAL}
+   * of them. Kept as a single loop so that the vectors stay in registers.
+   */
+  private static void addBlock( int[] pixels, int from, int to, int[] min,
+    int[] max, long[] sum, int base)
+  {
+    IntVector minR= IntVector.broadcast( SPECIES, min[base]);
+    IntVector minG= IntVector.broadcast( SPECIES, min[base + 1]);
+    IntVector minB= IntVector.broadcast( SPECIES, min[base + 2]);
+    IntVector maxR= IntVector.broadcast( SPECIES, max[base]);
+    IntVector maxG= IntVector.broadcast( SPECIES, max[base + 1]);
+    IntVector maxB= IntVector.broadcast( SPECIES, max[base + 2]);
+    IntVector sumR= IntVector.zero( SPECIES);
+    IntVector sumG= IntVector.zero( SPECIES);
+    IntVector sumB= IntVector.zero( SPECIES);
+    for (int i= from; i < to; i+= SPECIES.length()) {
+      final IntVector v= IntVector.fromArray( SPECIES, pixels, i);
+      // shift the channel to the top byte and back to sign-extend it
+      final IntVector r=
+        v.lanewise( VectorOperators.LSHL, 8).lanewise( VectorOperators.ASHR,
+          24);
+      final IntVector g=
+        v.lanewise( VectorOperators.LSHL, 16).lanewise( VectorOperators.ASHR,
+          24);
+      final IntVector b=
+        v.lanewise( VectorOperators.LSHL, 24).lanewise( VectorOperators.ASHR,
+          24);
+      minR= minR.min( r);
+      maxR= maxR.max( r);
+      sumR= sumR.add( r);
+      minG= minG.min( g);
+      maxG= maxG.max( g);
+      sumG= sumG.add( g);
+      minB= minB.min( b);
+      maxB= maxB.max( b);
+      sumB= sumB.add( b);
+    }
+    min[base]= minR.reduceLanes( VectorOperators.MIN);
+    min[base + 1]= minG.reduceLanes( VectorOperators.MIN);
+    min[base + 2]= minB.reduceLanes( VectorOperators.MIN);
+    max[base]= maxR.reduceLanes( VectorOperators.MAX);
+    max[base + 1]= maxG.reduceLanes( VectorOperators.MAX);
+    max[base + 2]= maxB.reduceLanes( VectorOperators.MAX);
+    sum[base]+= sumR.reduceLanesToLong( VectorOperators.ADD);
+    sum[base + 1]+= sumG.reduceLanesToLong( VectorOperators.ADD);
+    sum[base + 2]+= sumB.reduceLanesToLong( VectorOperators.ADD);
+  }
+}